@@ -0,0 +1,30 @@
+package com.walt;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import java.io.IOException;
+
+// JCache manager of the Hibernate second level cache.
+// Hibernate can't load a classpath configuration by itself while it starts, so the manager is created here and handed to it.
+@Configuration
+public class CacheConfiguration {
+
+	@Bean
+	public CacheManager hibernateCacheManager(@Value("${walt.cache.config}") Resource config) throws IOException {
+		return Caching.getCachingProvider().getCacheManager(config.getURI(), getClass().getClassLoader());
+	}
+	
+	@Bean
+	public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+		return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+	}
+}
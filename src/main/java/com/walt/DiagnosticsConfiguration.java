@@ -0,0 +1,89 @@
+package com.walt;
+
+import com.walt.diagnostics.QueryDiagnostics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.hibernate.cfg.AvailableSettings;
+
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.Repository;
+
+// Hooks QueryDiagnostics into the repositories, the service and Hibernate.
+// Every repository proxy gets a first interceptor that times its calls, and the service is wrapped by a proxy that marks
+// every call as one operation for the N+1 detection.
+// Off unless walt.diagnostics.enabled is true, as it adds work to every repository call and every statement.
+@Configuration
+@ConditionalOnProperty(name = "walt.diagnostics.enabled", havingValue = "true")
+public class DiagnosticsConfiguration {
+
+	// Static, so the post processor is created before the repositories without creating this configuration first.
+	@Bean
+	public static BeanPostProcessor queryDiagnosticsPostProcessor(ObjectProvider<QueryDiagnostics> queryDiagnostics) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if(bean instanceof Repository && bean instanceof Advised) {
+					((Advised) bean).addAdvice(0, repositoryInterceptor(queryDiagnostics, getRepositoryName((Advised) bean)));
+					return bean;
+				}
+				if(bean instanceof WaltService) {
+					// A class proxy, so the bean can still be injected as WaltServiceImpl.
+					ProxyFactory proxyFactory = new ProxyFactory(bean);
+					proxyFactory.setProxyTargetClass(true);
+					proxyFactory.addAdvice(operationInterceptor(queryDiagnostics));
+					return proxyFactory.getProxy();
+				}
+				return bean;
+			}
+		};
+	}
+	
+	@Bean
+	public HibernatePropertiesCustomizer queryDiagnosticsCustomizer(QueryDiagnostics queryDiagnostics) {
+		return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, queryDiagnostics);
+	}
+	
+	private static MethodInterceptor repositoryInterceptor(ObjectProvider<QueryDiagnostics> queryDiagnostics, String repositoryName) {
+		return invocation -> {
+			QueryDiagnostics diagnostics = queryDiagnostics.getObject();
+			diagnostics.startRepositoryCall(repositoryName + "." + invocation.getMethod().getName());
+			long start = System.nanoTime();
+			Object result = null;
+			try {
+				result = invocation.proceed();
+				return result;
+			} finally {
+				diagnostics.endRepositoryCall(System.nanoTime() - start, result);
+			}
+		};
+	}
+	
+	private static MethodInterceptor operationInterceptor(ObjectProvider<QueryDiagnostics> queryDiagnostics) {
+		return invocation -> {
+			QueryDiagnostics diagnostics = queryDiagnostics.getObject();
+			diagnostics.startOperation(invocation.getMethod().getName());
+			try {
+				return invocation.proceed();
+			} finally {
+				diagnostics.endOperation();
+			}
+		};
+	}
+	
+	// The name of the repository interface the proxy was created for, the first proxied interface that extends Repository.
+	private static String getRepositoryName(Advised repository) {
+		for(Class<?> repositoryInterface : repository.getProxiedInterfaces()) {
+			if(Repository.class.isAssignableFrom(repositoryInterface)) {
+				return repositoryInterface.getSimpleName();
+			}
+		}
+		return repository.getTargetClass().getSimpleName();
+	}
+}
@@ -0,0 +1,49 @@
+package com.walt;
+
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import reactor.core.Disposable;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.r2dbc.connectionfactory.R2dbcTransactionManager;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+// R2DBC access for ReactiveWaltService, against the same H2 database that JPA uses.
+// The connection factory is intentionally not a bean - Spring Boot backs off the JDBC DataSource
+// (and with it JPA) when a ConnectionFactory bean exists, so only the DatabaseClient is exposed.
+@Configuration
+public class R2dbcConfiguration implements DisposableBean {
+
+	private final ConnectionFactory connectionFactory;
+	
+	public R2dbcConfiguration(@Value("${walt.r2dbc.url}") String url, @Value("${walt.r2dbc.username}") String username,
+			@Value("${walt.r2dbc.password}") String password) {
+		this.connectionFactory = ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+				.option(ConnectionFactoryOptions.USER, username)
+				.option(ConnectionFactoryOptions.PASSWORD, password)
+				.build());
+	}
+	
+	@Bean
+	public DatabaseClient databaseClient() {
+		return DatabaseClient.create(connectionFactory);
+	}
+	
+	// Only the operator is a bean, a ReactiveTransactionManager bean would make Spring Boot back off the JPA transaction manager.
+	@Bean
+	public TransactionalOperator reactiveTransactionalOperator() {
+		return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+	}
+	
+	@Override
+	public void destroy() {
+		if(connectionFactory instanceof Disposable) { // Close the connection pool.
+			((Disposable) connectionFactory).dispose();
+		}
+	}
+}
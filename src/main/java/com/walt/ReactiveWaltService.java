@@ -0,0 +1,19 @@
+package com.walt;
+
+import com.walt.model.*;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+
+public interface ReactiveWaltService {
+
+    Mono<Delivery> createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime);
+
+    Mono<Delivery> createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime);
+
+    Flux<DriverDistance> getDriverRankReport();
+
+    Flux<DriverDistance> getDriverRankReportByCity(City city);
+}
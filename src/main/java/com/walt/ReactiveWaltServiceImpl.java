@@ -0,0 +1,317 @@
+package com.walt;
+
+import com.walt.model.*;
+import com.walt.model.DriverDistanceRollup.Granularity;
+import com.walt.report.DriverDistanceRollupUpdater;
+import com.walt.schedule.CityDispatchLocks;
+import com.walt.schedule.DispatchLock;
+import com.walt.schedule.DriverAssigner;
+import com.walt.schedule.DriverScheduleRegistry;
+import com.walt.tenant.TenantContext;
+import com.walt.tenant.TenantQuotas;
+import com.walt.utils.Consts;
+
+import io.r2dbc.spi.Row;
+import org.hibernate.SessionFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Non blocking version of WaltServiceImpl over R2DBC.
+// It works on the tables that JPA creates and uses the same DriverAssigner rules, so both services assign drivers the same way.
+@Service
+public class ReactiveWaltServiceImpl implements ReactiveWaltService {
+
+	private static final String DRIVERS_BY_CITY_QUERY = "SELECT id, name FROM named_entity WHERE dtype = 'Driver' AND city_id = :city";
+	private static final String SHIFTS_BY_CITY_QUERY = "SELECT s.driver_id, s.shift_start, s.shift_end FROM driver_shift s "
+			+ "JOIN named_entity d ON d.id = s.driver_id WHERE d.city_id = :city";
+	// Deliveries are read by the drivers of the city, like the driver schedules of the blocking service, so deliveries saved
+	// without a city are counted too, and deliveries saved without an end time take the default duration.
+	private static final String CITY_DRIVER_IDS_QUERY = "SELECT id FROM named_entity WHERE dtype = 'Driver' AND city_id = :city";
+	private static final String BUSY_DRIVERS_QUERY = "SELECT DISTINCT driver_id FROM delivery "
+			+ "WHERE driver_id IN (" + CITY_DRIVER_IDS_QUERY + ") AND delivery_time < :end "
+			+ "AND COALESCE(delivery_end_time, DATEADD('MILLISECOND', " + Consts.DEFAULT_DELIVERY_DURATION_IN_MILLISECONDS + ", delivery_time)) > :start";
+	private static final String DELIVERIES_COUNT_QUERY = "SELECT driver_id, COUNT(*) AS deliveries FROM delivery "
+			+ "WHERE driver_id IN (" + CITY_DRIVER_IDS_QUERY + ") GROUP BY driver_id";
+	private static final String INSERT_DELIVERY_QUERY = "INSERT INTO delivery "
+			+ "(id, driver_id, restaurant_id, customer_id, city_id, delivery_time, delivery_end_time, distance, stop_number, last_modified) "
+			+ "VALUES (:id, :driver, :restaurant, :customer, :city, :start, :end, :distance, 0, CURRENT_TIMESTAMP)";
+	private static final String UPDATE_ROLLUP_QUERY = "UPDATE driver_distance_rollup SET total_distance = total_distance + :distance, "
+			+ "deliveries = deliveries + 1 WHERE driver_id = :driver AND granularity = :granularity AND bucket_start = :bucket";
+	private static final String INSERT_ROLLUP_QUERY = "INSERT INTO driver_distance_rollup "
+			+ "(id, driver_id, city_id, granularity, bucket_start, total_distance, deliveries) "
+			+ "VALUES (NEXT VALUE FOR hibernate_sequence, :driver, :city, :granularity, :bucket, :distance, 1)";
+	private static final String RANK_REPORT_QUERY = "SELECT d.id, d.name, c.id AS city_id, c.name AS city_name, SUM(del.distance) AS total_distance "
+			+ "FROM delivery del JOIN named_entity d ON d.id = del.driver_id LEFT JOIN named_entity c ON c.id = d.city_id ";
+	private static final String RANK_REPORT_GROUP_BY = "GROUP BY d.id, d.name, c.id, c.name ORDER BY total_distance DESC";
+	
+	@Autowired
+	private DatabaseClient databaseClient;
+	
+	@Autowired
+	private DriverAssigner driverAssigner;
+	
+	@Autowired
+	private DriverScheduleRegistry driverScheduleRegistry;
+	
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	
+	@Autowired
+	private TenantQuotas tenantQuotas;
+	
+	@Autowired
+	private CityDispatchLocks cityDispatchLocks;
+	
+	@Autowired
+	private TransactionalOperator reactiveTransactionalOperator;
+	
+	@Value("${walt.delivery.duration-minutes:60}")
+	private long deliveryDurationInMinutes;
+	
+	@Override
+	public Mono<Delivery> createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime) {
+		Date deliveryEndTime = new Date(deliveryTime.getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+		return createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryEndTime);
+	}
+	
+	@Override
+	public Mono<Delivery> createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime) {
+		// The tenant is taken from the calling thread, the rest of the chain may run on other threads.
+		String tenantId = TenantContext.getTenantId();
+		return Mono.defer(() -> {
+			// Rejects the order before any database work when the tenant is over its quota.
+			tenantQuotas.acquire(tenantId, 1);
+			return checkIfCustomerExists(customer, tenantId)
+					.flatMap(exists -> {
+						if(!exists) { // Check if customer exist in the system - in the tenant of the order.
+							return Mono.error(new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE));
+						}
+						driverAssigner.validateOrder(customer, restaurant, deliveryTime, deliveryEndTime, tenantId);
+						return withCityLock(restaurant.getCity(), () -> findAvailableDriver(restaurant.getCity(), deliveryTime, deliveryEndTime)
+								.flatMap(driver -> {
+									// Create new delivery with all details and save it to the database.
+									Delivery delivery = new Delivery(driver, restaurant, customer, deliveryTime, deliveryEndTime);
+									return saveDelivery(delivery);
+								}));
+					})
+					.doFinally(signal -> tenantQuotas.release(tenantId, 1));
+		});
+	}
+	
+	@Override
+	public Flux<DriverDistance> getDriverRankReport() {
+		return databaseClient.execute(RANK_REPORT_QUERY + "WHERE c.tenant_id = :tenant " + RANK_REPORT_GROUP_BY)
+				.bind("tenant", TenantContext.getTenantId())
+				.map((row, metadata) -> toDriverDistance(row))
+				.all();
+	}
+	
+	@Override
+	public Flux<DriverDistance> getDriverRankReportByCity(City city) {
+		String tenantId = TenantContext.getTenantId();
+		return Flux.defer(() -> {
+			driverAssigner.validateTenant(city, tenantId);
+			return databaseClient.execute(RANK_REPORT_QUERY + "WHERE d.city_id = :city " + RANK_REPORT_GROUP_BY)
+					.bind("city", city.getId())
+					.map((row, metadata) -> toDriverDistance(row))
+					.all();
+		});
+	}
+	
+	// Function that runs the assignment holding the dispatch lock of the city, the one the blocking service takes, so no other
+	// order of the city reads the busy drivers between the read and the insert of this one. No thread waits for the lock, the
+	// assignment starts on a parallel thread when the lock is handed over, and the lock is released when the assignment ends.
+	// An order cancelled while it waits leaves the queue, or gives the lock back if it was handed over at the same moment.
+	private <T> Mono<T> withCityLock(City city, Supplier<Mono<T>> assignment) {
+		DispatchLock cityLock = cityDispatchLocks.getLock(city);
+		Mono<AtomicBoolean> acquireLock = Mono.create(sink -> {
+			AtomicBoolean held = new AtomicBoolean(true);
+			CompletableFuture<Void> waiter = cityLock.lockAsync();
+			sink.onCancel(() -> {
+				if(!cityLock.cancel(waiter)) {
+					unlock(cityLock, held);
+				}
+			});
+			// Not on the unlocking thread, which may be the blocking service or the end of another assignment.
+			waiter.thenRun(() -> Schedulers.parallel().schedule(() -> sink.success(held)));
+		});
+		return Mono.usingWhen(acquireLock, held -> assignment.get(),
+				held -> Mono.fromRunnable(() -> unlock(cityLock, held)));
+	}
+	
+	// The lock may be released both by the cancel of the waiting order and by the end of the assignment, only the first one unlocks.
+	private static void unlock(DispatchLock cityLock, AtomicBoolean held) {
+		if(held.compareAndSet(true, false)) {
+			cityLock.unlock();
+		}
+	}
+	
+	private Mono<Boolean> checkIfCustomerExists(Customer customer, String tenantId) {
+		return databaseClient.execute("SELECT id FROM named_entity WHERE dtype = 'Customer' AND name = :name AND tenant_id = :tenant")
+				.bind("name", customer.getName())
+				.bind("tenant", tenantId)
+				.map((row, metadata) -> row.get("id", Long.class))
+				.all()
+				.hasElements();
+	}
+	
+	// Function that gets a city and delivery interval, and returns a driver that is available and can be assigned for the delivery.
+	// The drivers, their shifts, the busy drivers and the deliveries count are loaded in parallel, one query each.
+	private Mono<Driver> findAvailableDriver(City city, Date deliveryTime, Date deliveryEndTime) {
+		Mono<List<Driver>> allDriversInCity = databaseClient.execute(DRIVERS_BY_CITY_QUERY)
+				.bind("city", city.getId())
+				.map((row, metadata) -> toDriver(row, city))
+				.all()
+				.collectList();
+		Mono<Map<Long, Collection<DriverShift>>> shiftsByDriver = databaseClient.execute(SHIFTS_BY_CITY_QUERY)
+				.bind("city", city.getId())
+				.map((row, metadata) -> toDriverShift(row))
+				.all()
+				.collectMultimap(shift -> shift.getDriver().getId());
+		Mono<Set<Long>> busyDrivers = databaseClient.execute(BUSY_DRIVERS_QUERY)
+				.bind("city", city.getId())
+				.bind("start", toLocalDateTime(deliveryTime))
+				.bind("end", toLocalDateTime(deliveryEndTime))
+				.map((row, metadata) -> row.get("driver_id", Long.class))
+				.all()
+				.collect(Collectors.toSet());
+		Mono<Map<Long, Long>> deliveriesCount = databaseClient.execute(DELIVERIES_COUNT_QUERY)
+				.bind("city", city.getId())
+				.map((row, metadata) -> row)
+				.all()
+				.collectMap(row -> row.get("driver_id", Long.class), row -> row.get("deliveries", Long.class));
+		
+		return Mono.zip(allDriversInCity, shiftsByDriver, busyDrivers, deliveriesCount)
+				.map(result -> {
+					Map<Long, List<DriverShift>> shifts = new HashMap<>();
+					result.getT2().forEach((driverId, driverShifts) -> shifts.put(driverId, new ArrayList<>(driverShifts)));
+					List<Driver> allAvailableDrivers = driverAssigner.getAllAvailableDrivers(result.getT1(), shifts,
+							deliveryTime.getTime(), deliveryEndTime.getTime(), driver -> !result.getT3().contains(driver.getId()));
+					return driverAssigner.getTheLeastBusyDriverByDeliveries(allAvailableDrivers,
+							driver -> result.getT4().getOrDefault(driver.getId(), 0L).intValue());
+				});
+	}
+	
+	// The delivery and its rollups are saved in one transaction, so the rollups never miss a saved delivery.
+	private Mono<Delivery> saveDelivery(Delivery delivery) {
+		Mono<Void> insertDelivery = databaseClient.execute("SELECT NEXT VALUE FOR hibernate_sequence AS id")
+				.map((row, metadata) -> row.get("id", Long.class))
+				.one()
+				.flatMap(id -> {
+					delivery.setId(id);
+					return databaseClient.execute(INSERT_DELIVERY_QUERY)
+							.bind("id", id)
+							.bind("driver", delivery.getDriver().getId())
+							.bind("restaurant", delivery.getRestaurant().getId())
+							.bind("customer", delivery.getCustomer().getId())
+							.bind("city", delivery.getCity().getId())
+							.bind("start", toLocalDateTime(delivery.getDeliveryTime()))
+							.bind("end", toLocalDateTime(delivery.getDeliveryEndTime()))
+							.bind("distance", delivery.getDistance())
+							.fetch()
+							.rowsUpdated();
+				})
+				.thenMany(Flux.fromArray(Granularity.values()))
+				.concatMap(granularity -> updateRollup(delivery, granularity))
+				.then();
+		return reactiveTransactionalOperator.transactional(insertDelivery)
+				.then(Mono.just(delivery))
+				// Hibernate doesn't see this insert, so update the driver schedule and drop the cached rank reports here, after the commit.
+				.doOnSuccess(savedDelivery -> {
+					driverScheduleRegistry.addDelivery(delivery);
+					entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegion(Consts.RANK_REPORTS_CACHE_REGION);
+				});
+	}
+	
+	// Function that adds the delivery to the hourly or daily distance rollup of its driver, like DriverDistanceRollupUpdater does for JPA.
+	private Mono<Integer> updateRollup(Delivery delivery, Granularity granularity) {
+		LocalDateTime bucket = toLocalDateTime(DriverDistanceRollupUpdater.getBucketStart(delivery.getDeliveryTime(), granularity));
+		Mono<Integer> update = databaseClient.execute(UPDATE_ROLLUP_QUERY)
+				.bind("distance", delivery.getDistance())
+				.bind("driver", delivery.getDriver().getId())
+				.bind("granularity", granularity.name())
+				.bind("bucket", bucket)
+				.fetch()
+				.rowsUpdated();
+		return update.flatMap(rowsUpdated -> {
+			if(rowsUpdated > 0) {
+				return Mono.just(rowsUpdated);
+			}
+			// First delivery of the driver in this bucket, if another order created the bucket first update it again.
+			return databaseClient.execute(INSERT_ROLLUP_QUERY)
+					.bind("driver", delivery.getDriver().getId())
+					.bind("city", delivery.getDriver().getCity().getId())
+					.bind("granularity", granularity.name())
+					.bind("bucket", bucket)
+					.bind("distance", delivery.getDistance())
+					.fetch()
+					.rowsUpdated()
+					.onErrorResume(DataIntegrityViolationException.class, e -> update);
+		});
+	}
+	
+	private Driver toDriver(Row row, City city) {
+		Driver driver = new Driver(row.get("name", String.class), city);
+		driver.setId(row.get("id", Long.class));
+		return driver;
+	}
+	
+	private DriverShift toDriverShift(Row row) {
+		Driver driver = new Driver();
+		driver.setId(row.get("driver_id", Long.class));
+		return new DriverShift(driver, toDate(row.get("shift_start", LocalDateTime.class)), toDate(row.get("shift_end", LocalDateTime.class)));
+	}
+	
+	private DriverDistance toDriverDistance(Row row) {
+		City city = new City(row.get("city_name", String.class));
+		city.setId(row.get("city_id", Long.class));
+		Driver driver = new Driver(row.get("name", String.class), city);
+		driver.setId(row.get("id", Long.class));
+		Long totalDistance = row.get("total_distance", Double.class).longValue();
+		return new DriverDistance() {
+			@Override
+			public Driver getDriver() {
+				return driver;
+			}
+			
+			@Override
+			public Long getTotalDistance() {
+				return totalDistance;
+			}
+		};
+	}
+	
+	// Hibernate saves java.util.Date as a timestamp without time zone, in the default time zone.
+	private LocalDateTime toLocalDateTime(Date date) {
+		return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+	}
+	
+	private Date toDate(LocalDateTime localDateTime) {
+		return Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
+	}
+}
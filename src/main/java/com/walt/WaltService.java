@@ -9,8 +9,28 @@ public  interface WaltService{
 
     Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime);
 
+    Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime);
+
+    Delivery createOrderAndAssignDriver(String idempotencyKey, Customer customer, Restaurant restaurant, Date deliveryTime);
+
+    List<Delivery> createRunAndAssignDriver(Restaurant restaurant, List<Customer> customers, Date deliveryTime);
+
+    List<Delivery> createOrdersAndAssignDrivers(List<OrderRequest> orders);
+
+    void cancelDelivery(Long deliveryId);
+
+    Delivery reassignDelivery(Long deliveryId);
+
     List<DriverDistance> getDriverRankReport();
 
     List<DriverDistance> getDriverRankReportByCity(City city);
+
+    List<DriverDistance> getDriverRankReport(Date from, Date to);
+
+    List<DriverDistance> getDriverRankReportByCity(City city, Date from, Date to);
+
+    List<DeliverySummary> getDeliveriesByCity(City city, Date from, Date to);
+
+    List<DeliverySummary> getDriverSchedule(Driver driver, Date from, Date to);
 }
 
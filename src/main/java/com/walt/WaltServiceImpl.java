@@ -2,17 +2,36 @@ package com.walt;
 
 import com.walt.dao.CustomerRepository;
 import com.walt.dao.DeliveryRepository;
+import com.walt.dao.DriverDistanceRollupRepository;
 import com.walt.dao.DriverRepository;
+import com.walt.dao.DriverShiftRepository;
+import com.walt.idempotency.IdempotencyStore;
 import com.walt.model.*;
+import com.walt.model.DriverDistanceRollup.Granularity;
+import com.walt.report.DriverDistanceRollupUpdater;
+import com.walt.schedule.CityDispatchLocks;
+import com.walt.schedule.DispatchLock;
+import com.walt.schedule.DriverAssigner;
+import com.walt.schedule.DriverScheduleRegistry;
+import com.walt.tenant.TenantContext;
+import com.walt.tenant.TenantQuotas;
 import com.walt.utils.Consts;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,28 +46,269 @@ public class WaltServiceImpl implements WaltService {
 	@Autowired
 	private CustomerRepository customerRepository;
 	
+	@Autowired
+	private DriverShiftRepository driverShiftRepository;
+	
+	@Autowired
+	private DriverDistanceRollupRepository driverDistanceRollupRepository;
+	
+	@Autowired
+	private DriverScheduleRegistry driverScheduleRegistry;
+	
+	@Autowired
+	private DriverAssigner driverAssigner;
+	
+	@Autowired
+	private IdempotencyStore idempotencyStore;
+	
+	@Autowired
+	private CityDispatchLocks cityDispatchLocks;
+	
+	@Autowired
+	private DriverDistanceRollupUpdater driverDistanceRollupUpdater;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private TenantQuotas tenantQuotas;
+	
+	@Value("${walt.delivery.duration-minutes:60}")
+	private long deliveryDurationInMinutes;
+	
+	@Value("${walt.matching.time-budget-millis:50}")
+	private long matchingTimeBudgetInMilliseconds;
+	
     @Override
     public Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime) {
-    	if(customerRepository.findByName(customer.getName()) == null) { // Check if customer exist in the system.
-    		throw new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE);
+    	Date deliveryEndTime = new Date(deliveryTime.getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+    	return createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryEndTime);
+    }
+    
+    @Override
+    public Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime) {
+    	return createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryEndTime, delivery -> {});
+    }
+    
+    // Function that creates the order, and calls onSaved with the delivery in the transaction that saves it.
+    private Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime,
+    		Consumer<Delivery> onSaved) {
+    	// Rejects the order before any database work when the tenant is over its quota.
+    	String tenantId = TenantContext.getTenantId();
+    	tenantQuotas.acquire(tenantId, 1);
+    	try {
+    		// Check if customer exist in the system - in the tenant of the order.
+    		if(customerRepository.findByName(customer.getName()) == null) {
+    			throw new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE);
+    		}
+    		
+    		driverAssigner.validateOrder(customer, restaurant, deliveryTime, deliveryEndTime, tenantId);
+    		
+    		DispatchLock cityLock = cityDispatchLocks.getLock(restaurant.getCity());
+    		cityLock.lock();
+    		try {
+    			// Find available driver - lives in the same city of the restaurant & customer, on shift and with no other delivery at the same time.
+    			Driver driver = findAvailableDriver(restaurant.getCity(), deliveryTime, deliveryEndTime);
+    			
+    			// Create new delivery with all details.
+    			Delivery delivery = new Delivery(driver, restaurant, customer, deliveryTime, deliveryEndTime);
+    			
+    			// Save delivery to the database.
+    			return transactionTemplate.execute(status -> {
+    				deliveryRepository.save(delivery);
+    				onSaved.accept(delivery);
+    				return delivery;
+    			});
+    		} finally {
+    			cityLock.unlock();
+    		}
+    	} finally {
+    		tenantQuotas.release(tenantId, 1);
     	}
-    	
-    	if(!customer.getCity().getName().equals(restaurant.getCity().getName())) { // Check if the customer and the restaurant are from the same city.
-    		throw new RuntimeException(Consts.NOT_SAME_CITY_MESSAGE);
+    }
+    
+    @Override
+    public Delivery createOrderAndAssignDriver(String idempotencyKey, Customer customer, Restaurant restaurant, Date deliveryTime) {
+    	// Brands choose their keys independently, so the same key of two tenants is two different orders.
+    	String tenantKey = TenantContext.getTenantId() + ":" + idempotencyKey;
+    	String fingerprint = IdempotencyStore.getFingerprint(customer.getName(), restaurant.getName(), deliveryTime);
+    	synchronized (idempotencyStore.getLock(tenantKey)) {
+    		// If this order was already made with this key, return the original delivery. A key of another order is rejected.
+    		Long deliveryId = idempotencyStore.findDeliveryId(tenantKey, fingerprint);
+    		if(deliveryId != null) {
+    			Optional<Delivery> delivery = deliveryRepository.findById(deliveryId);
+    			if(delivery.isPresent()) {
+    				return delivery.get();
+    			}
+    		}
+    		
+    		// The key is saved with the delivery, so a delivery is never committed without its key.
+    		Date deliveryEndTime = new Date(deliveryTime.getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+    		return createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryEndTime,
+    				delivery -> idempotencyStore.save(tenantKey, fingerprint, delivery.getId()));
     	}
+    }
+    
+    @Override
+    public List<Delivery> createRunAndAssignDriver(Restaurant restaurant, List<Customer> customers, Date deliveryTime) {
+    	// Every stop of the run counts as an order of the tenant quota.
+    	String tenantId = TenantContext.getTenantId();
+    	tenantQuotas.acquire(tenantId, customers.size());
+    	try {
+    		Date deliveryEndTime = new Date(deliveryTime.getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+    		for(Customer customer : customers) {
+    			if(customerRepository.findByName(customer.getName()) == null) { // Check if customer exist in the system.
+    				throw new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE);
+    			}
+    			driverAssigner.validateOrder(customer, restaurant, deliveryTime, deliveryEndTime, tenantId);
+    		}
     	
-    	// Find available driver - lives in the same city of the restaurant & customer, no other delivery at the same time.
-    	Driver driver = findAvailableDriver(restaurant.getCity(), deliveryTime);
-    	
-    	// Create new delivery with all details.
-    	Delivery delivery = new Delivery(driver, restaurant, customer, deliveryTime);
-    	
-    	// Save delivery to the database.
-    	deliveryRepository.save(delivery);
-    	
-        return delivery;
+    		DispatchLock cityLock = cityDispatchLocks.getLock(restaurant.getCity());
+    		cityLock.lock();
+    		try {
+    			// One driver makes all the stops of the run in the same delivery slot.
+    			Driver driver = findAvailableDriver(restaurant.getCity(), deliveryTime, deliveryEndTime);
+    		
+    			// Create a delivery for every stop, with the distance of the leg from the previous stop.
+    			String runId = UUID.randomUUID().toString();
+    			List<Delivery> deliveries = new ArrayList<>();
+    			Location previousLocation = restaurant.getLocation();
+    			for(Customer customer : getStopsByNearestNeighbor(restaurant, customers)) {
+    				Delivery delivery = new Delivery(driver, restaurant, customer, deliveryTime, deliveryEndTime);
+    				delivery.setDistance(Delivery.calculateDistance(previousLocation, customer.getLocation()));
+    				delivery.setRunId(runId);
+    				delivery.setStopNumber(deliveries.size() + 1);
+    				deliveries.add(delivery);
+    				previousLocation = customer.getLocation();
+    			}
+    		
+    			// Save all the deliveries of the run to the database.
+    			deliveryRepository.saveAll(deliveries);
+    		
+    			return deliveries;
+    		} finally {
+    			cityLock.unlock();
+    		}
+    	} finally {
+    		tenantQuotas.release(tenantId, customers.size());
+    	}
     }
-
+    
+    // Function that assigns a batch of orders of one city together, by a min cost matching of the orders to the available drivers,
+    // instead of one order at a time. Returns the delivery of every order, or null for an order that got no driver.
+    // Every order takes its own tenant quota, the orders after the ones that fit in the quota are left without a driver.
+    // Orders the matching didn't reach within the time budget, or that were left without a driver, are tried one by one at the end,
+    // as a driver who got an order of the batch may still be free for another order later in the slot.
+    @Override
+    public List<Delivery> createOrdersAndAssignDrivers(List<OrderRequest> orders) {
+    	if(orders.isEmpty()) {
+    		return new ArrayList<>();
+    	}
+    	String tenantId = TenantContext.getTenantId();
+    	int admittedOrders = tenantQuotas.acquireUpTo(tenantId, orders.size());
+    	try {
+    		City city = orders.get(0).getRestaurant().getCity();
+    		List<long[]> orderIntervals = new ArrayList<>();
+    		for(OrderRequest order : orders) {
+    			if(customerRepository.findByName(order.getCustomer().getName()) == null) { // Check if customer exist in the system.
+    				throw new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE);
+    			}
+    			if(!order.getRestaurant().getCity().getId().equals(city.getId())) { // All the orders of the batch are of one city.
+    				throw new RuntimeException(Consts.NOT_SAME_CITY_MESSAGE);
+    			}
+    			Date deliveryEndTime = getDeliveryEndTime(order);
+    			driverAssigner.validateOrder(order.getCustomer(), order.getRestaurant(), order.getDeliveryTime(), deliveryEndTime, tenantId);
+    			if(orderIntervals.size() < admittedOrders) {
+    				orderIntervals.add(new long[] {order.getDeliveryTime().getTime(), deliveryEndTime.getTime()});
+    			}
+    		}
+    		
+    		DispatchLock cityLock = cityDispatchLocks.getLock(city);
+    		cityLock.lock();
+    		try {
+    			List<Driver> allDriversInCity = driverRepository.findAllDriversByCity(city);
+    			if(allDriversInCity.isEmpty()) {
+    				throw new RuntimeException(Consts.NO_DRIVERS_MESSAGE);
+    			}
+    			Map<Long, List<DriverShift>> shiftsByDriver = driverShiftRepository.findAllShiftsByDriverCity(city).stream()
+    					.collect(Collectors.groupingBy(shift -> shift.getDriver().getId()));
+    			
+    			// Every driver gets at most one order of the batch.
+    			List<Driver> matchedDrivers = driverAssigner.matchOrdersToDrivers(allDriversInCity, shiftsByDriver, orderIntervals,
+    					(driver, interval) -> driverScheduleRegistry.isDriverAvailable(driver, interval[0], interval[1]),
+    					driverScheduleRegistry::getDeliveriesCount, TimeUnit.MILLISECONDS.toNanos(matchingTimeBudgetInMilliseconds));
+    			List<Delivery> deliveries = new ArrayList<>();
+    			for(int i = 0; i < admittedOrders; i++) {
+    				deliveries.add(matchedDrivers.get(i) == null ? null : createDelivery(orders.get(i), matchedDrivers.get(i)));
+    			}
+    			deliveryRepository.saveAll(deliveries.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+    			
+    			// The least busy available driver for every order that is left, with the schedules that include the saved deliveries.
+    			for(int i = 0; i < admittedOrders; i++) {
+    				if(deliveries.get(i) == null) {
+    					Driver driver = driverAssigner.matchOrdersToDrivers(allDriversInCity, shiftsByDriver, Collections.singletonList(orderIntervals.get(i)),
+    							(availableDriver, interval) -> driverScheduleRegistry.isDriverAvailable(availableDriver, interval[0], interval[1]),
+    							driverScheduleRegistry::getDeliveriesCount, Long.MAX_VALUE).get(0);
+    					if(driver != null) {
+    						deliveries.set(i, deliveryRepository.save(createDelivery(orders.get(i), driver)));
+    					}
+    				}
+    			}
+    			while(deliveries.size() < orders.size()) { // The orders over the quota.
+    				deliveries.add(null);
+    			}
+    			return deliveries;
+    		} finally {
+    			cityLock.unlock();
+    		}
+    	} finally {
+    		tenantQuotas.release(tenantId, admittedOrders);
+    	}
+    }
+    
+    @Override
+    public void cancelDelivery(Long deliveryId) {
+    	Delivery delivery = findDelivery(deliveryId);
+    	DispatchLock cityLock = cityDispatchLocks.getLock(delivery.getCity());
+    	cityLock.lock();
+    	try {
+    		// Deleting the delivery updates the driver schedule and the distance rollups through the delivery listeners,
+    		// in the same transaction, and invalidates the cached rank reports.
+    		transactionTemplate.execute(status -> {
+    			deliveryRepository.delete(findDelivery(deliveryId));
+    			return null;
+    		});
+    	} finally {
+    		cityLock.unlock();
+    	}
+    }
+    
+    @Override
+    public Delivery reassignDelivery(Long deliveryId) {
+    	Delivery delivery = findDelivery(deliveryId);
+    	DispatchLock cityLock = cityDispatchLocks.getLock(delivery.getCity());
+    	cityLock.lock();
+    	try {
+    		return transactionTemplate.execute(status -> {
+    			// Load the delivery again under the lock, it may have changed since it was first read.
+    			Delivery lockedDelivery = findDelivery(deliveryId);
+    			Driver oldDriver = lockedDelivery.getDriver();
+    			
+    			// The current driver is busy with this very delivery, so only other drivers can be picked.
+    			Driver newDriver = findAvailableDriver(lockedDelivery.getCity(), lockedDelivery.getDeliveryTime(), getDeliveryEndTime(lockedDelivery));
+    			lockedDelivery.setDriver(newDriver);
+    			deliveryRepository.save(lockedDelivery);
+    			
+    			// Move the delivery between the drivers in the distance rollups and in the in memory schedules.
+    			driverDistanceRollupUpdater.moveDelivery(lockedDelivery, oldDriver);
+    			driverScheduleRegistry.moveDelivery(lockedDelivery, oldDriver);
+    			return lockedDelivery;
+    		});
+    	} finally {
+    		cityLock.unlock();
+    	}
+    }
+    
     @Override
     public List<DriverDistance> getDriverRankReport() {
         return deliveryRepository.getDriverRankReportByDriver();
@@ -56,74 +316,133 @@ public class WaltServiceImpl implements WaltService {
 
     @Override
     public List<DriverDistance> getDriverRankReportByCity(City city) {
+        driverAssigner.validateTenant(city, TenantContext.getTenantId());
         return deliveryRepository.getCityDriversRankReportByDriver(city);
     }
     
-    // Function that gets a city and delivery time, and returns a driver that is available and can be assigned for the delivery.
-    private Driver findAvailableDriver(City city, Date deliveryTime) {
+    @Override
+    public List<DriverDistance> getDriverRankReport(Date from, Date to) {
+    	Date[] window = getRollupWindow(from, to);
+    	return driverDistanceRollupRepository.getDriverRankReport(window[0], window[1], window[2], window[3]);
+    }
+    
+    @Override
+    public List<DriverDistance> getDriverRankReportByCity(City city, Date from, Date to) {
+    	driverAssigner.validateTenant(city, TenantContext.getTenantId());
+    	Date[] window = getRollupWindow(from, to);
+    	return driverDistanceRollupRepository.getCityDriverRankReport(city, window[0], window[1], window[2], window[3]);
+    }
+    
+    @Override
+    public List<DeliverySummary> getDeliveriesByCity(City city, Date from, Date to) {
+    	driverAssigner.validateTenant(city, TenantContext.getTenantId());
+    	return deliveryRepository.findDeliveriesByCityAndTimeRange(city, from, to);
+    }
+    
+    @Override
+    public List<DeliverySummary> getDriverSchedule(Driver driver, Date from, Date to) {
+    	driverAssigner.validateTenant(driver, TenantContext.getTenantId());
+    	return deliveryRepository.findDeliveriesByDriverAndTimeRange(driver, from, to);
+    }
+    
+    private Delivery createDelivery(OrderRequest order, Driver driver) {
+    	return new Delivery(driver, order.getRestaurant(), order.getCustomer(), order.getDeliveryTime(), getDeliveryEndTime(order));
+    }
+    
+    private Date getDeliveryEndTime(OrderRequest order) {
+    	if(order.getDeliveryEndTime() != null) {
+    		return order.getDeliveryEndTime();
+    	}
+    	return new Date(order.getDeliveryTime().getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+    }
+    
+    // Deliveries without an end time take the default duration, like in the driver schedules.
+    private Date getDeliveryEndTime(Delivery delivery) {
+    	if(delivery.getDeliveryEndTime() != null) {
+    		return delivery.getDeliveryEndTime();
+    	}
+    	return new Date(delivery.getDeliveryTime().getTime() + Consts.DEFAULT_DELIVERY_DURATION_IN_MILLISECONDS);
+    }
+    
+    // Function that returns the delivery of the given id, if it is of the tenant of the request - the id may be of another brand.
+    private Delivery findDelivery(Long deliveryId) {
+    	Optional<Delivery> delivery = deliveryRepository.findById(deliveryId);
+    	if(!delivery.isPresent()) {
+    		throw new RuntimeException(Consts.DELIVERY_NOT_FOUND_MESSAGE);
+    	}
+    	driverAssigner.validateTenant(delivery.get().getCity(), TenantContext.getTenantId());
+    	return delivery.get();
+    }
+    
+    // Function that gets a city and delivery interval, and returns a driver that is available and can be assigned for the delivery.
+    private Driver findAvailableDriver(City city, Date deliveryTime, Date deliveryEndTime) {
     	Driver driver = new Driver();
-    	List<Driver> allAvailableDrivers = getAllAvailableDrivers(city, deliveryTime);
+    	List<Driver> allAvailableDrivers = getAllAvailableDrivers(city, deliveryTime, deliveryEndTime);
     	driver = getTheLeastBusyDriverByDeliveries(allAvailableDrivers);
     	return driver;
     }
     
-    // Function that gets a city and delivery time, and returns all the available drivers in this city at the requested delivery time.
-    private List<Driver> getAllAvailableDrivers(City city, Date deliveryTime){
-    	List<Driver> allAvailableDrivers = new ArrayList<>();
-    	
-    	// Find all drivers in city.
-    	allAvailableDrivers = driverRepository.findAllDriversByCity(city);
+    // Function that gets a city and delivery interval, and returns all the available drivers in this city at the requested delivery interval.
+    private List<Driver> getAllAvailableDrivers(City city, Date deliveryTime, Date deliveryEndTime){
+    	// Find all drivers in city and load their shifts at once.
+    	List<Driver> allDriversInCity = driverRepository.findAllDriversByCity(city);
+    	Map<Long, List<DriverShift>> shiftsByDriver = driverShiftRepository.findAllShiftsByDriverCity(city).stream()
+    			.collect(Collectors.groupingBy(shift -> shift.getDriver().getId()));
+    	long start = deliveryTime.getTime();
+    	long end = deliveryEndTime.getTime();
     	
-    	if(allAvailableDrivers.isEmpty()) {
-    		throw new RuntimeException(Consts.NO_DRIVERS_MESSAGE);
-    	} else {
-    		// Filter the array and keep only the available drivers.
-    		allAvailableDrivers = allAvailableDrivers.stream().filter(driver -> checkIfDriverAvailableAtTime(driver, deliveryTime)).collect(Collectors.toList());
-    		if(allAvailableDrivers.isEmpty()) {
-        		throw new RuntimeException(Consts.NO_DRIVERS_AVAILABLE_MESSAGE);
-        	}
+    	return driverAssigner.getAllAvailableDrivers(allDriversInCity, shiftsByDriver, start, end,
+    			driver -> driverScheduleRegistry.isDriverAvailable(driver, start, end));
+    }
+    
+    // Function that gets a report window, and returns its bounds for the rollups: [from, dayFrom) and [dayTo, to) are read from the
+    // hourly rollups and [dayFrom, dayTo) from the daily rollups. The window is widened to full hours.
+    private Date[] getRollupWindow(Date from, Date to) {
+    	Date hourFrom = DriverDistanceRollupUpdater.getBucketStart(from, Granularity.HOUR);
+    	Date hourTo = DriverDistanceRollupUpdater.getBucketStart(to, Granularity.HOUR);
+    	if(hourTo.before(to)) {
+    		hourTo = new Date(hourTo.getTime() + TimeUnit.HOURS.toMillis(1));
     	}
-    	return allAvailableDrivers;
+    	Date dayFrom = DriverDistanceRollupUpdater.getBucketStart(hourFrom, Granularity.DAY);
+    	if(dayFrom.before(hourFrom)) {
+    		dayFrom = DriverDistanceRollupUpdater.getBucketStart(new Date(dayFrom.getTime() + TimeUnit.HOURS.toMillis(36)), Granularity.DAY);
+    	}
+    	Date dayTo = DriverDistanceRollupUpdater.getBucketStart(hourTo, Granularity.DAY);
+    	if(!dayFrom.before(dayTo)) { // No full day in the window - use only the hourly rollups.
+    		dayFrom = hourTo;
+    		dayTo = hourTo;
+    	}
+    	return new Date[] {hourFrom, dayFrom, dayTo, hourTo};
     }
     
-    // Function that gets a driver and and delivery time, and returns if the driver is available to make this delivery.
-    // Delivery is taking 1 hour, so driver can make a delivery only if he doesn't have any delivery at the hour before and at the hour after the 
-    // requested delivery time.
-    private boolean checkIfDriverAvailableAtTime(Driver driver, Date deliveryTime) {
-    	final long hourInMilliseconds = 3600000;
-    	long newDeliveryHourInMilliseconds = deliveryTime.getTime();
-    	long minHour = newDeliveryHourInMilliseconds - hourInMilliseconds;
-    	long maxHour = newDeliveryHourInMilliseconds + hourInMilliseconds;
-    	
-    	List<Delivery> allDeliveriesByDriver = deliveryRepository.findAllDeliveriesByDriver(driver);
-    	for(Delivery delivery : allDeliveriesByDriver) {
-    		long deliveryHourInMilliseconds = delivery.getDeliveryTime().getTime();
-    		if(deliveryHourInMilliseconds > minHour && deliveryHourInMilliseconds < maxHour) {
-    			return false;
+    // Function that gets a restaurant and the customers of a run, and returns the customers in the order of the stops.
+    // Every next stop is the nearest customer to the current one, customers with unknown location are the last stops.
+    private List<Customer> getStopsByNearestNeighbor(Restaurant restaurant, List<Customer> customers) {
+    	List<Customer> remainingCustomers = new ArrayList<>(customers);
+    	List<Customer> stops = new ArrayList<>();
+    	Location currentLocation = restaurant.getLocation();
+    	while(!remainingCustomers.isEmpty() && Location.isKnown(currentLocation)) {
+    		Customer nearestCustomer = null;
+    		for(Customer customer : remainingCustomers) {
+    			if(Location.isKnown(customer.getLocation()) && (nearestCustomer == null
+    					|| currentLocation.distanceTo(customer.getLocation()) < currentLocation.distanceTo(nearestCustomer.getLocation()))) {
+    				nearestCustomer = customer;
+    			}
+    		}
+    		if(nearestCustomer == null) {
+    			break;
     		}
+    		remainingCustomers.remove(nearestCustomer);
+    		stops.add(nearestCustomer);
+    		currentLocation = nearestCustomer.getLocation();
     	}
-    	return true;
+    	stops.addAll(remainingCustomers);
+    	return stops;
     }
     
     // Function that gets list of all available drivers right now, and returns the least busy one according to number of deliveries that the driver have.
     private Driver getTheLeastBusyDriverByDeliveries(List<Driver> allAvailableDrivers) {
-    	Driver leastBusyDriver = new Driver();
-    	double temp = -1;
-    	for(Driver driver : allAvailableDrivers) {
-    		// Get all the deliveries for this driver.
-    		List<Delivery> allDeliveries = deliveryRepository.findAllDeliveriesByDriver(driver);
-    		
-    		if(temp == -1) { // If this is the first driver in the list, save him.
-    			temp = allDeliveries.size();
-    			leastBusyDriver = driver;
-    		} else {
-    			if(allDeliveries.size() < temp) { 
-    				// If the number of deliveries of this driver is smaller then the number of deliveries of the saved driver - switch between them.
-    				temp = allDeliveries.size();
-        			leastBusyDriver = driver;
-    			}
-    		}
-    	}
-    	return leastBusyDriver;
+    	// The number of deliveries of every driver is counted incrementally by the driver schedules.
+    	return driverAssigner.getTheLeastBusyDriverByDeliveries(allAvailableDrivers, driverScheduleRegistry::getDeliveriesCount);
     }
 }
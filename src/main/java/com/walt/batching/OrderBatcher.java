@@ -0,0 +1,237 @@
+package com.walt.batching;
+
+import com.walt.WaltService;
+import com.walt.dao.CustomerRepository;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Location;
+import com.walt.model.OrderRequest;
+import com.walt.model.Restaurant;
+import com.walt.schedule.DriverAssigner;
+import com.walt.tenant.TenantContext;
+import com.walt.utils.Consts;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Holds the orders of every restaurant and delivery slot for a short window, and then sends the orders of nearby customers
+// together as one multi stop run with a single driver.
+// The scheduler thread only closes the windows, the batches are sent by a fixed pool of workers, so a batch that waits for the
+// database or for the lock of its city doesn't hold back the batches of other restaurants.
+@Component
+public class OrderBatcher implements InitializingBean, DisposableBean {
+
+	@Autowired
+	private WaltService waltService;
+	
+	@Autowired
+	private CustomerRepository customerRepository;
+	
+	@Autowired
+	private DriverAssigner driverAssigner;
+	
+	@Value("${walt.delivery.duration-minutes:60}")
+	private long deliveryDurationInMinutes;
+	
+	@Value("${walt.batching.window-millis:500}")
+	private long windowInMilliseconds;
+	
+	@Value("${walt.batching.max-stops:3}")
+	private int maxStops;
+	
+	@Value("${walt.batching.max-stop-distance-km:2}")
+	private double maxStopDistanceInKm;
+	
+	@Value("${walt.batching.worker-threads:4}")
+	private int workerThreads;
+	
+	// When on, the orders of a city and hour are batched together and assigned by the slot matching instead of in runs.
+	@Value("${walt.batching.slot-matching:false}")
+	private boolean slotMatching;
+	
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	
+	private ExecutorService workers;
+	
+	// Orders that wait for their window to end, by tenant, restaurant and delivery time - or by tenant, city and hour with slot matching.
+	private final Map<String, List<PendingOrder>> pendingOrders = new HashMap<>();
+	
+	@Override
+	public void afterPropertiesSet() {
+		workers = Executors.newFixedThreadPool(workerThreads);
+	}
+	
+	// Function that adds an order to the batch of its restaurant and delivery time, and returns the delivery once the batch is sent.
+	public CompletableFuture<Delivery> submitOrder(Customer customer, Restaurant restaurant, Date deliveryTime) {
+		PendingOrder order = new PendingOrder(customer, restaurant, deliveryTime);
+		String tenantId = TenantContext.getTenantId();
+		String batchKey = slotMatching
+				? tenantId + ":city:" + restaurant.getCity().getId() + ":" + TimeUnit.MILLISECONDS.toHours(deliveryTime.getTime())
+				: tenantId + ":" + restaurant.getId() + ":" + deliveryTime.getTime();
+		synchronized (pendingOrders) {
+			List<PendingOrder> batch = pendingOrders.get(batchKey);
+			if(batch == null) { // First order of the batch - send the batch when the window ends.
+				batch = new ArrayList<>();
+				pendingOrders.put(batchKey, batch);
+				scheduler.schedule(() -> closeBatch(tenantId, batchKey, restaurant, deliveryTime), windowInMilliseconds, TimeUnit.MILLISECONDS);
+			}
+			batch.add(order);
+		}
+		return order.result;
+	}
+	
+	// Function that ends the window of a batch on the scheduler thread, new orders of the batch key start a new batch.
+	private void closeBatch(String tenantId, String batchKey, Restaurant restaurant, Date deliveryTime) {
+		List<PendingOrder> batch;
+		synchronized (pendingOrders) {
+			batch = pendingOrders.remove(batchKey);
+		}
+		try {
+			workers.execute(() -> sendBatch(tenantId, batch, restaurant, deliveryTime));
+		} catch (RejectedExecutionException e) { // Shutting down.
+			for(PendingOrder order : batch) {
+				order.result.completeExceptionally(e);
+			}
+		}
+	}
+	
+	// The batch is sent on a worker thread, in the tenant of its orders.
+	private void sendBatch(String tenantId, List<PendingOrder> batch, Restaurant restaurant, Date deliveryTime) {
+		TenantContext.setTenantId(tenantId);
+		try {
+			sendBatch(batch, restaurant, deliveryTime);
+		} catch (Throwable e) { // Nothing thrown on the worker thread reaches the callers, fail the orders that still wait.
+			for(PendingOrder order : batch) {
+				order.result.completeExceptionally(e);
+			}
+		} finally {
+			TenantContext.clear();
+		}
+	}
+	
+	private void sendBatch(List<PendingOrder> batch, Restaurant restaurant, Date deliveryTime) {
+		// Reject the invalid orders by themselves, with the same checks as the service, so they don't fail the run or the slot of other customers.
+		List<PendingOrder> validOrders = new ArrayList<>();
+		for(PendingOrder order : batch) {
+			try {
+				if(customerRepository.findByName(order.customer.getName()) == null) { // Check if customer exist in the system.
+					throw new RuntimeException(Consts.CUSTOMER_NOT_FOUND_MESSAGE);
+				}
+				Date deliveryEndTime = new Date(order.deliveryTime.getTime() + TimeUnit.MINUTES.toMillis(deliveryDurationInMinutes));
+				driverAssigner.validateOrder(order.customer, order.restaurant, order.deliveryTime, deliveryEndTime, TenantContext.getTenantId());
+				validOrders.add(order);
+			} catch (Throwable e) {
+				order.result.completeExceptionally(e);
+			}
+		}
+		
+		if(slotMatching) {
+			sendSlot(validOrders);
+			return;
+		}
+		for(List<PendingOrder> run : groupNearbyOrders(validOrders)) {
+			List<Customer> customers = new ArrayList<>();
+			for(PendingOrder order : run) {
+				customers.add(order.customer);
+			}
+			try {
+				// The stops of the run are reordered by the service, match every order to a delivery of its customer by the customer id,
+				// a customer may have more than one order in the run.
+				List<Delivery> deliveries = new ArrayList<>(waltService.createRunAndAssignDriver(restaurant, customers, deliveryTime));
+				for(PendingOrder order : run) {
+					for(int i = 0; i < deliveries.size(); i++) {
+						if(deliveries.get(i).getCustomer().getId().equals(order.customer.getId())) {
+							order.result.complete(deliveries.remove(i));
+							break;
+						}
+					}
+				}
+			} catch (Throwable e) {
+				for(PendingOrder order : run) {
+					order.result.completeExceptionally(e);
+				}
+			}
+		}
+	}
+	
+	private void sendSlot(List<PendingOrder> orders) {
+		if(orders.isEmpty()) {
+			return;
+		}
+		List<OrderRequest> requests = new ArrayList<>();
+		for(PendingOrder order : orders) {
+			requests.add(new OrderRequest(order.customer, order.restaurant, order.deliveryTime));
+		}
+		try {
+			List<Delivery> deliveries = waltService.createOrdersAndAssignDrivers(requests);
+			for(int i = 0; i < orders.size(); i++) {
+				if(deliveries.get(i) == null) {
+					orders.get(i).result.completeExceptionally(new RuntimeException(Consts.ORDER_NOT_ASSIGNED_MESSAGE));
+				} else {
+					orders.get(i).result.complete(deliveries.get(i));
+				}
+			}
+		} catch (Throwable e) {
+			for(PendingOrder order : orders) {
+				order.result.completeExceptionally(e);
+			}
+		}
+	}
+	
+	// Function that gets the orders of a batch, and splits them to runs of customers that are close to the first customer of the run.
+	// Customers with unknown location always get a run of their own.
+	private List<List<PendingOrder>> groupNearbyOrders(List<PendingOrder> orders) {
+		List<List<PendingOrder>> runs = new ArrayList<>();
+		List<PendingOrder> remainingOrders = new ArrayList<>(orders);
+		while(!remainingOrders.isEmpty()) {
+			PendingOrder firstOrder = remainingOrders.remove(0);
+			List<PendingOrder> run = new ArrayList<>();
+			run.add(firstOrder);
+			Location firstLocation = firstOrder.customer.getLocation();
+			if(Location.isKnown(firstLocation)) {
+				for(int i = 0; i < remainingOrders.size() && run.size() < maxStops; i++) {
+					Location location = remainingOrders.get(i).customer.getLocation();
+					if(Location.isKnown(location) && firstLocation.distanceTo(location) <= maxStopDistanceInKm) {
+						run.add(remainingOrders.remove(i--));
+					}
+				}
+			}
+			runs.add(run);
+		}
+		return runs;
+	}
+	
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+	}
+	
+	private static class PendingOrder {
+		final Customer customer;
+		final Restaurant restaurant;
+		final Date deliveryTime;
+		final CompletableFuture<Delivery> result = new CompletableFuture<>();
+		
+		PendingOrder(Customer customer, Restaurant restaurant, Date deliveryTime) {
+			this.customer = customer;
+			this.restaurant = restaurant;
+			this.deliveryTime = deliveryTime;
+		}
+	}
+}
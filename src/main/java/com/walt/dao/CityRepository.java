@@ -1,10 +1,14 @@
 package com.walt.dao;
 
 import com.walt.model.City;
+import com.walt.utils.Consts;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface CityRepository extends CrudRepository<City, Long> {
-    City findByName(String cityName);
+    @Query("SELECT e FROM City e WHERE e.name = :name AND e.tenantId = " + Consts.CURRENT_TENANT_PARAMETER)
+    City findByName(@Param("name") String cityName);
 }
@@ -1,10 +1,14 @@
 package com.walt.dao;
 
 import com.walt.model.Customer;
+import com.walt.utils.Consts;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface CustomerRepository extends CrudRepository<Customer, Long> {
-    Customer findByName(String name);
+    @Query("SELECT e FROM Customer e WHERE e.name = :name AND e.tenantId = " + Consts.CURRENT_TENANT_PARAMETER)
+    Customer findByName(@Param("name") String name);
 }
@@ -0,0 +1,33 @@
+package com.walt.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Deliveries carry the city of their restaurant, for the city range queries over idx_delivery_city_time.
+// On startup, deliveries saved before the city was added to them get the city of their restaurant, once.
+@Component
+public class DeliveryCityBackfill implements ApplicationRunner {
+
+	private static final String BACKFILL_CITIES_QUERY = "UPDATE delivery SET city_id = "
+			+ "(SELECT r.city_id FROM named_entity r WHERE r.id = delivery.restaurant_id) WHERE city_id IS NULL";
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		backfillCities();
+	}
+
+	// Function that sets the city of every delivery that has none, and returns the number of deliveries it updated.
+	public int backfillCities() {
+		return transactionTemplate.execute(status -> jdbcTemplate.update(BACKFILL_CITIES_QUERY));
+	}
+}
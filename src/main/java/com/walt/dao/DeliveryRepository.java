@@ -3,12 +3,19 @@ package com.walt.dao;
 import com.walt.model.City;
 import com.walt.model.Driver;
 import com.walt.model.Delivery;
+import com.walt.model.DeliverySummary;
+import com.walt.model.DriverDeliveriesCount;
 import com.walt.model.DriverDistance;
+import com.walt.utils.Consts;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 @Repository
@@ -16,11 +23,30 @@ public interface DeliveryRepository extends CrudRepository<Delivery, Long> {
 
 	List<Delivery> findAllDeliveriesByDriver(@Param("driver") Driver driver);
 	
-	@Query("SELECT del.driver AS driver, SUM(del.distance) AS totalDistance FROM Delivery del GROUP BY del.driver ORDER BY totalDistance DESC")
+	@Query("SELECT del.driver AS driver, SUM(del.distance) AS totalDistance FROM Delivery del WHERE del.driver.city.tenantId = " + Consts.CURRENT_TENANT_PARAMETER + " GROUP BY del.driver ORDER BY totalDistance DESC")
+	@QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"), @QueryHint(name = "org.hibernate.cacheRegion", value = Consts.RANK_REPORTS_CACHE_REGION)})
 	List<DriverDistance> getDriverRankReportByDriver();
 	
 	@Query("SELECT del.driver AS driver, SUM(del.distance) AS totalDistance FROM Delivery del WHERE del.driver.city =:city GROUP BY del.driver ORDER BY totalDistance DESC")
+	@QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"), @QueryHint(name = "org.hibernate.cacheRegion", value = Consts.RANK_REPORTS_CACHE_REGION)})
 	List<DriverDistance> getCityDriversRankReportByDriver(@Param("city") City city);
+	
+	// Range queries over the delivery start time. They read only columns of idx_delivery_city_time / idx_delivery_driver_time.
+	@Query("SELECT del.id AS id, del.driver.id AS driverId, del.city.id AS cityId, del.deliveryTime AS deliveryTime, del.deliveryEndTime AS deliveryEndTime, del.distance AS distance "
+			+ "FROM Delivery del WHERE del.city =:city AND del.deliveryTime >= :from AND del.deliveryTime < :to ORDER BY del.deliveryTime")
+	List<DeliverySummary> findDeliveriesByCityAndTimeRange(@Param("city") City city, @Param("from") Date from, @Param("to") Date to);
+	
+	@Query("SELECT del.id AS id, del.driver.id AS driverId, del.city.id AS cityId, del.deliveryTime AS deliveryTime, del.deliveryEndTime AS deliveryEndTime, del.distance AS distance "
+			+ "FROM Delivery del WHERE del.driver =:driver AND del.deliveryTime >= :from AND del.deliveryTime < :to ORDER BY del.deliveryTime")
+	List<DeliverySummary> findDeliveriesByDriverAndTimeRange(@Param("driver") Driver driver, @Param("from") Date from, @Param("to") Date to);
+	
+	@Query("SELECT del.id AS id, del.driver.id AS driverId, del.city.id AS cityId, del.deliveryTime AS deliveryTime, del.deliveryEndTime AS deliveryEndTime, del.distance AS distance "
+			+ "FROM Delivery del WHERE del.lastModified >= :since ORDER BY del.lastModified")
+	List<DeliverySummary> findDeliveriesModifiedSince(@Param("since") Date since);
+	
+	// Reads only columns of idx_delivery_driver_time, and only the index ranges of the given drivers.
+	@Query("SELECT del.driver.id AS driverId, COUNT(del) AS deliveries FROM Delivery del WHERE del.driver.id IN :driverIds GROUP BY del.driver.id")
+	List<DriverDeliveriesCount> countDeliveriesByDrivers(@Param("driverIds") Collection<Long> driverIds);
 }
 
 
@@ -0,0 +1,37 @@
+package com.walt.dao;
+
+import com.walt.model.City;
+import com.walt.model.DriverDistance;
+import com.walt.model.DriverDistanceRollup;
+import com.walt.utils.Consts;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+// The rank report of a window merges the daily rollups of the full days in [dayFrom, dayTo), and the hourly rollups of the
+// hours before and after them in [from, dayFrom) and [dayTo, to).
+// The report without a city is of the drivers of the current tenant.
+// Drivers whose deliveries in the window were all cancelled or reassigned are left out of the report.
+@Repository
+public interface DriverDistanceRollupRepository extends CrudRepository<DriverDistanceRollup, Long> {
+
+	@Query("SELECT r.driver AS driver, SUM(r.totalDistance) AS totalDistance FROM DriverDistanceRollup r "
+			+ "WHERE r.city.tenantId = " + Consts.CURRENT_TENANT_PARAMETER + " AND ((r.granularity = com.walt.model.DriverDistanceRollup$Granularity.DAY AND r.bucketStart >= :dayFrom AND r.bucketStart < :dayTo) "
+			+ "OR (r.granularity = com.walt.model.DriverDistanceRollup$Granularity.HOUR "
+			+ "AND ((r.bucketStart >= :from AND r.bucketStart < :dayFrom) OR (r.bucketStart >= :dayTo AND r.bucketStart < :to)))) "
+			+ "GROUP BY r.driver HAVING SUM(r.deliveries) > 0 ORDER BY totalDistance DESC")
+	List<DriverDistance> getDriverRankReport(@Param("from") Date from, @Param("dayFrom") Date dayFrom, @Param("dayTo") Date dayTo,
+			@Param("to") Date to);
+	
+	@Query("SELECT r.driver AS driver, SUM(r.totalDistance) AS totalDistance FROM DriverDistanceRollup r WHERE r.city =:city "
+			+ "AND ((r.granularity = com.walt.model.DriverDistanceRollup$Granularity.DAY AND r.bucketStart >= :dayFrom AND r.bucketStart < :dayTo) "
+			+ "OR (r.granularity = com.walt.model.DriverDistanceRollup$Granularity.HOUR "
+			+ "AND ((r.bucketStart >= :from AND r.bucketStart < :dayFrom) OR (r.bucketStart >= :dayTo AND r.bucketStart < :to)))) "
+			+ "GROUP BY r.driver HAVING SUM(r.deliveries) > 0 ORDER BY totalDistance DESC")
+	List<DriverDistance> getCityDriverRankReport(@Param("city") City city, @Param("from") Date from, @Param("dayFrom") Date dayFrom,
+			@Param("dayTo") Date dayTo, @Param("to") Date to);
+}
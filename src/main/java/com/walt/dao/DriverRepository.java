@@ -2,14 +2,21 @@ package com.walt.dao;
 
 import com.walt.model.City;
 import com.walt.model.Driver;
+import com.walt.utils.Consts;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 
 @Repository
 public interface DriverRepository extends CrudRepository<Driver,Long> {
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"), @QueryHint(name = "org.hibernate.cacheRegion", value = Consts.DRIVERS_BY_CITY_CACHE_REGION)})
     List<Driver> findAllDriversByCity(City city);
 
-    Driver findByName(String name);
+    @Query("SELECT e FROM Driver e WHERE e.name = :name AND e.tenantId = " + Consts.CURRENT_TENANT_PARAMETER)
+    Driver findByName(@Param("name") String name);
 }
@@ -0,0 +1,17 @@
+package com.walt.dao;
+
+import com.walt.model.City;
+import com.walt.model.Driver;
+import com.walt.model.DriverShift;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DriverShiftRepository extends CrudRepository<DriverShift, Long> {
+
+    List<DriverShift> findAllShiftsByDriver(Driver driver);
+
+    List<DriverShift> findAllShiftsByDriverCity(City city);
+}
@@ -0,0 +1,20 @@
+package com.walt.dao;
+
+import com.walt.model.IdempotencyRecord;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+@Repository
+public interface IdempotencyRecordRepository extends CrudRepository<IdempotencyRecord, String> {
+
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :createdBefore")
+	int deleteRecordsCreatedBefore(@Param("createdBefore") Date createdBefore);
+}
@@ -0,0 +1,127 @@
+package com.walt.diagnostics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Collects per repository method statistics - calls, time, returned rows and the SQL statements Hibernate issued for it.
+// Every WaltService call is an operation, a repository method called at least the N+1 threshold times in one operation is
+// flagged, like the schedule of every driver of a city loaded one by one inside a single createOrderAndAssignDriver.
+// Repository calls and service operations are reported by DiagnosticsConfiguration, the statements by Hibernate through
+// the StatementInspector, on the thread of the repository call.
+@Component
+@ConditionalOnProperty(name = "walt.diagnostics.enabled", havingValue = "true")
+public class QueryDiagnostics implements StatementInspector {
+	
+	@Value("${walt.diagnostics.n-plus-one-threshold:3}")
+	private int nPlusOneThreshold;
+	
+	private final Map<String, RepositoryMethodStats> stats = new ConcurrentHashMap<>();
+	
+	// Repository methods running on this thread, a repository may call another one while it flushes.
+	private final ThreadLocal<Deque<RepositoryMethodStats>> runningMethods = ThreadLocal.withInitial(ArrayDeque::new);
+	
+	// Calls of every repository method in the service operation running on this thread.
+	private final ThreadLocal<Operation> runningOperation = new ThreadLocal<>();
+	
+	// Function that marks the start of a service operation, nested operations are counted as part of the outer one.
+	public void startOperation(String name) {
+		Operation operation = runningOperation.get();
+		if(operation == null) {
+			runningOperation.set(new Operation(name));
+		} else {
+			operation.depth++;
+		}
+	}
+	
+	public void endOperation() {
+		Operation operation = runningOperation.get();
+		if(operation == null || operation.depth-- > 0) {
+			return;
+		}
+		runningOperation.remove();
+		for(Map.Entry<RepositoryMethodStats, Long> calls : operation.calls.entrySet()) {
+			calls.getKey().addOperationCalls(operation.name, calls.getValue(), calls.getValue() >= nPlusOneThreshold);
+		}
+	}
+	
+	public void startRepositoryCall(String method) {
+		RepositoryMethodStats methodStats = stats.computeIfAbsent(method, RepositoryMethodStats::new);
+		runningMethods.get().push(methodStats);
+		Operation operation = runningOperation.get();
+		if(operation != null) {
+			operation.calls.merge(methodStats, 1L, Long::sum);
+		}
+	}
+	
+	public void endRepositoryCall(long nanos, Object result) {
+		RepositoryMethodStats methodStats = runningMethods.get().pop();
+		methodStats.addCall(nanos, countRows(result));
+	}
+	
+	@Override
+	public String inspect(String sql) {
+		RepositoryMethodStats methodStats = runningMethods.get().peek();
+		if(methodStats != null) {
+			methodStats.addStatement(sql);
+		}
+		return sql;
+	}
+	
+	// Function that returns the statistics of all the repository methods, the ones that took the most time first.
+	public List<RepositoryMethodStats> getReport() {
+		List<RepositoryMethodStats> report = new ArrayList<>(stats.values());
+		report.sort(Comparator.comparingDouble(RepositoryMethodStats::getTotalMillis).reversed());
+		return report;
+	}
+	
+	public RepositoryMethodStats getStats(String method) {
+		return stats.get(method);
+	}
+	
+	public void reset() {
+		stats.clear();
+	}
+	
+	private static long countRows(Object result) {
+		if(result == null) {
+			return 0;
+		}
+		if(result instanceof Collection) {
+			return ((Collection<?>) result).size();
+		}
+		if(result instanceof Iterable) {
+			long rows = 0;
+			for(Object row : (Iterable<?>) result) {
+				rows++;
+			}
+			return rows;
+		}
+		if(result instanceof Optional) {
+			return ((Optional<?>) result).isPresent() ? 1 : 0;
+		}
+		return 1;
+	}
+	
+	private static class Operation {
+		final String name;
+		final Map<RepositoryMethodStats, Long> calls = new HashMap<>();
+		int depth;
+
+		Operation(String name) {
+			this.name = name;
+		}
+	}
+}
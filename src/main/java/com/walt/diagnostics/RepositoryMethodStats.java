@@ -0,0 +1,99 @@
+package com.walt.diagnostics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Execution statistics of one repository method, as shown by the repositoryqueries actuator endpoint.
+public class RepositoryMethodStats {
+	
+	private final String method;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder statements = new LongAdder();
+	private final LongAdder nPlusOneOperations = new LongAdder();
+	private final AtomicLong maxCallsPerOperation = new AtomicLong();
+	private final Set<String> nPlusOneOperationNames = ConcurrentHashMap.newKeySet();
+	private volatile String sampleSql;
+	
+	public RepositoryMethodStats(String method) {
+		this.method = method;
+	}
+	
+	void addCall(long nanos, long returnedRows) {
+		calls.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+		rows.add(returnedRows);
+	}
+	
+	void addStatement(String sql) {
+		statements.increment();
+		// Prefer a select as the sample, the plan of an insert or a sequence call says little.
+		String currentSample = sampleSql;
+		if(currentSample == null || (!isSelect(currentSample) && isSelect(sql))) {
+			sampleSql = sql;
+		}
+	}
+	
+	void addOperationCalls(String operationName, long operationCalls, boolean nPlusOne) {
+		maxCallsPerOperation.accumulateAndGet(operationCalls, Math::max);
+		if(nPlusOne) {
+			nPlusOneOperations.increment();
+			nPlusOneOperationNames.add(operationName);
+		}
+	}
+	
+	private static boolean isSelect(String sql) {
+		return sql.trim().toLowerCase().startsWith("select");
+	}
+	
+	public String getMethod() {
+		return method;
+	}
+	
+	public long getCalls() {
+		return calls.sum();
+	}
+	
+	public double getTotalMillis() {
+		return totalNanos.sum() / 1e6;
+	}
+	
+	public double getAverageMillis() {
+		long callsCount = getCalls();
+		return callsCount == 0 ? 0 : getTotalMillis() / callsCount;
+	}
+	
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+	
+	public long getRows() {
+		return rows.sum();
+	}
+	
+	public long getStatements() {
+		return statements.sum();
+	}
+	
+	// Number of service operations that called this method at least the N+1 threshold times.
+	public long getNPlusOneOperations() {
+		return nPlusOneOperations.sum();
+	}
+	
+	public Set<String> getNPlusOneOperationNames() {
+		return nPlusOneOperationNames;
+	}
+	
+	public long getMaxCallsPerOperation() {
+		return maxCallsPerOperation.get();
+	}
+	
+	public String getSampleSql() {
+		return sampleSql;
+	}
+}
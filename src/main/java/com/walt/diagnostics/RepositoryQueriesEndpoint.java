@@ -0,0 +1,73 @@
+package com.walt.diagnostics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Actuator endpoint of the repository query diagnostics.
+// GET /actuator/repositoryqueries - statistics of all the repository methods, the ones that took the most time first.
+// GET /actuator/repositoryqueries/{method} - the H2 EXPLAIN plan of the sample SQL of a method, e.g. DeliveryRepository.findAllDeliveriesByDriver.
+// DELETE /actuator/repositoryqueries - clears the statistics.
+@Component
+@ConditionalOnProperty(name = "walt.diagnostics.enabled", havingValue = "true")
+@Endpoint(id = "repositoryqueries")
+public class RepositoryQueriesEndpoint {
+
+	@Autowired
+	private QueryDiagnostics queryDiagnostics;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@ReadOperation
+	public List<RepositoryMethodStats> getReport() {
+		return queryDiagnostics.getReport();
+	}
+	
+	@ReadOperation
+	public Map<String, Object> explain(@Selector String method) {
+		RepositoryMethodStats methodStats = queryDiagnostics.getStats(method);
+		if(methodStats == null || methodStats.getSampleSql() == null) {
+			return null; // Not found.
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("method", method);
+		result.put("sql", methodStats.getSampleSql());
+		result.put("plan", explainSql(methodStats.getSampleSql()));
+		return result;
+	}
+	
+	@DeleteOperation
+	public void reset() {
+		queryDiagnostics.reset();
+	}
+	
+	// Function that returns the H2 plan of a statement. The parameters are bound to null, H2 plans the statement
+	// before it looks at their values, so the chosen indexes are the same as for the real values.
+	public List<String> explainSql(String sql) {
+		return jdbcTemplate.execute("EXPLAIN " + sql, (PreparedStatement statement) -> {
+			for(int i = 1; i <= statement.getParameterMetaData().getParameterCount(); i++) {
+				statement.setObject(i, null);
+			}
+			List<String> plan = new ArrayList<>();
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while(resultSet.next()) {
+					plan.add(resultSet.getString(1));
+				}
+			}
+			return plan;
+		});
+	}
+}
@@ -0,0 +1,151 @@
+package com.walt.idempotency;
+
+import com.walt.dao.IdempotencyRecordRepository;
+import com.walt.model.IdempotencyRecord;
+import com.walt.utils.Consts;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Remembers which delivery was created for every idempotency key, so a retried order returns the original delivery.
+// Every key also keeps the fingerprint of its order, and a key reused for another order is rejected.
+// Keys are kept in memory for a limited time, with a bounded number of keys. When the persistent mode is on, they are
+// also saved to the idempotency_record table, in the transaction of the delivery, and keys that are not in memory are looked up there.
+// Expired keys are purged periodically, from memory and from the table.
+@Component
+public class IdempotencyStore implements ApplicationRunner, DisposableBean {
+
+	private static final int LOCKS = 64;
+	
+	@Autowired
+	private IdempotencyRecordRepository idempotencyRecordRepository;
+	
+	@Value("${walt.idempotency.ttl-minutes:1440}")
+	private long ttlInMinutes;
+	
+	@Value("${walt.idempotency.persistent:false}")
+	private boolean persistent;
+	
+	@Value("${walt.idempotency.purge-interval-minutes:60}")
+	private long purgeIntervalInMinutes;
+	
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	
+	private final Map<String, IdempotencyRecord> records;
+	
+	// Orders with the same key wait for each other, so a retry that arrives before the first try ends doesn't create a second delivery.
+	private final Object[] locks = new Object[LOCKS];
+	
+	public IdempotencyStore(@Value("${walt.idempotency.max-keys:100000}") int maxKeys) {
+		// Insertion ordered map - the eldest key is dropped when the store is full.
+		this.records = new LinkedHashMap<String, IdempotencyRecord>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+				return size() > maxKeys;
+			}
+		};
+		for(int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+	}
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		scheduler.scheduleWithFixedDelay(this::purgeExpiredKeys, purgeIntervalInMinutes, purgeIntervalInMinutes, TimeUnit.MINUTES);
+	}
+	
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+	
+	public Object getLock(String idempotencyKey) {
+		return locks[Math.floorMod(idempotencyKey.hashCode(), LOCKS)];
+	}
+	
+	// Function that returns the id of the delivery created for this key, or null if the key is new or expired.
+	// Throws if the key was made for an order with another fingerprint.
+	public Long findDeliveryId(String idempotencyKey, String fingerprint) {
+		IdempotencyRecord record;
+		synchronized (records) {
+			record = records.get(idempotencyKey);
+		}
+		if(record == null && persistent) {
+			Optional<IdempotencyRecord> savedRecord = idempotencyRecordRepository.findById(idempotencyKey);
+			if(savedRecord.isPresent()) {
+				record = savedRecord.get();
+				synchronized (records) {
+					records.put(idempotencyKey, record);
+				}
+			}
+		}
+		if(record == null || isExpired(record)) {
+			return null;
+		}
+		if(!fingerprint.equals(record.getFingerprint())) {
+			throw new RuntimeException(Consts.IDEMPOTENCY_KEY_REUSED_MESSAGE);
+		}
+		return record.getDeliveryId();
+	}
+	
+	// Function that saves the key of a delivery. In a transaction, the record is saved with the delivery and the key is
+	// kept in memory only after the commit, so a rolled back delivery leaves no key behind.
+	public void save(String idempotencyKey, String fingerprint, Long deliveryId) {
+		IdempotencyRecord record = new IdempotencyRecord(idempotencyKey, deliveryId, fingerprint, new Date());
+		if(persistent) {
+			idempotencyRecordRepository.save(record);
+		}
+		runAfterCommit(() -> {
+			synchronized (records) {
+				records.remove(idempotencyKey); // Move a reused expired key to the end of the eviction order.
+				records.put(idempotencyKey, record);
+			}
+		});
+	}
+	
+	// Function that returns the fingerprint of an order, the key must be used again only for the same order.
+	public static String getFingerprint(String customerName, String restaurantName, Date deliveryTime) {
+		return customerName + ":" + restaurantName + ":" + deliveryTime.getTime();
+	}
+	
+	// Function that drops the expired keys, so they don't wait in memory until the store is full or stay in the table forever.
+	public void purgeExpiredKeys() {
+		synchronized (records) {
+			records.values().removeIf(this::isExpired);
+		}
+		if(persistent) {
+			idempotencyRecordRepository.deleteRecordsCreatedBefore(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlInMinutes)));
+		}
+	}
+	
+	private void runAfterCommit(Runnable action) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+	
+	private boolean isExpired(IdempotencyRecord record) {
+		return record.getCreatedAt().getTime() + TimeUnit.MINUTES.toMillis(ttlInMinutes) < System.currentTimeMillis();
+	}
+}
@@ -1,5 +1,6 @@
 package com.walt.model;
 
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
 
@@ -10,6 +11,9 @@ public class Customer extends  NamedEntity{
     City city;
     String address;
 
+    @Embedded
+    Location location;
+
     public Customer(){}
 
     public Customer(String name, City city, String address) {
@@ -33,4 +37,12 @@ public class Customer extends  NamedEntity{
     public void setAddress(String address) {
         this.address = address;
     }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
 }
@@ -1,10 +1,19 @@
 package com.walt.model;
 
+import com.walt.report.DriverDistanceRollupListener;
+import com.walt.schedule.DeliveryScheduleListener;
+
 import javax.persistence.*;
 import java.util.Date;
 import java.util.Random;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_delivery_city_time", columnList = "city_id, deliveryTime, deliveryEndTime, driver_id, distance"),
+        @Index(name = "idx_delivery_driver_time", columnList = "driver_id, deliveryTime, deliveryEndTime, city_id, distance"),
+        @Index(name = "idx_delivery_last_modified", columnList = "lastModified")
+})
+@EntityListeners({DeliveryScheduleListener.class, DriverDistanceRollupListener.class})
 public class Delivery {
 
     @Id
@@ -20,24 +29,60 @@ public class Delivery {
     @ManyToOne
     Customer customer;
 
+    @ManyToOne
+    City city;
+
     Date deliveryTime;
+    Date deliveryEndTime;
     double distance;
 
+    // Deliveries of the same multi stop run share the run id, the distance of each of them is the leg from the previous stop.
+    String runId;
+    int stopNumber;
+
+    // Time of the last insert or update, deliveries changed after a dispatch snapshot was taken are replayed over it.
+    Date lastModified;
+
     public Delivery() {
     }
 
+    // Delivery without an end time, the schedules treat it as taking the default delivery duration.
     public Delivery(Driver driver, Restaurant restaurant, Customer customer, Date deliveryTime) {
+        this(driver, restaurant, customer, deliveryTime, null);
+    }
+
+    public Delivery(Driver driver, Restaurant restaurant, Customer customer, Date deliveryTime, Date deliveryEndTime) {
         this.driver = driver;
         this.restaurant = restaurant;
         this.customer = customer;
+        this.city = restaurant.getCity(); // Saved on the delivery so city range queries don't need to join the restaurant.
         this.deliveryTime = deliveryTime;
-        this.distance = 20.0 * (new Random().nextDouble()); // Generate distance between 0.0 and 20.0
+        this.deliveryEndTime = deliveryEndTime;
+        this.distance = calculateDistance(restaurant.getLocation(), customer.getLocation());
+    }
+
+    @PrePersist
+    @PreUpdate
+    void updateLastModified() {
+        lastModified = new Date();
+    }
+
+    // Function that returns the distance in Km between two stops, when one of the locations is unknown the distance is random.
+    public static double calculateDistance(Location from, Location to) {
+        if (Location.isKnown(from) && Location.isKnown(to)) {
+            return from.distanceTo(to);
+        }
+        return 20.0 * (new Random().nextDouble()); // Generate distance between 0.0 and 20.0
     }
 
     public Long getId() {
         return id;
     }
 
+    public void setId(Long id) {
+        this.id = id;
+    }
+
     public Driver getDriver() {
         return driver;
     }
@@ -62,6 +107,14 @@ public class Delivery {
         this.customer = customer;
     }
 
+    public City getCity() {
+        return city;
+    }
+
+    public void setCity(City city) {
+        this.city = city;
+    }
+
     public Date getDeliveryTime() {
         return deliveryTime;
     }
@@ -70,6 +123,14 @@ public class Delivery {
         this.deliveryTime = deliveryTime;
     }
 
+    public Date getDeliveryEndTime() {
+        return deliveryEndTime;
+    }
+
+    public void setDeliveryEndTime(Date deliveryEndTime) {
+        this.deliveryEndTime = deliveryEndTime;
+    }
+
     public double getDistance() {
         return distance;
     }
@@ -77,4 +138,24 @@ public class Delivery {
     public void setDistance(double distance) {
         this.distance = distance;
     }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public int getStopNumber() {
+        return stopNumber;
+    }
+
+    public void setStopNumber(int stopNumber) {
+        this.stopNumber = stopNumber;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
 }
@@ -0,0 +1,12 @@
+package com.walt.model;
+
+import java.util.Date;
+
+public interface DeliverySummary {
+    Long getId();
+    Long getDriverId();
+    Long getCityId();
+    Date getDeliveryTime();
+    Date getDeliveryEndTime();
+    Double getDistance();
+}
@@ -0,0 +1,6 @@
+package com.walt.model;
+
+public interface DriverDeliveriesCount {
+    Long getDriverId();
+    Long getDeliveries();
+}
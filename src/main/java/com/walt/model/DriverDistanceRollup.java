@@ -0,0 +1,67 @@
+package com.walt.model;
+
+import javax.persistence.*;
+import java.util.Date;
+
+// Total distance and number of deliveries of a driver in one hour or one day, by the delivery start time.
+// Rows are updated with plain SQL by DriverDistanceRollupUpdater, JPA is used only to create the table and to query it.
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_rollup_driver_bucket", columnNames = {"driver_id", "granularity", "bucketStart"}),
+        indexes = {
+                @Index(name = "idx_rollup_bucket", columnList = "granularity, bucketStart, driver_id, totalDistance"),
+                @Index(name = "idx_rollup_city_bucket", columnList = "city_id, granularity, bucketStart, driver_id, totalDistance")
+        })
+public class DriverDistanceRollup {
+
+    public enum Granularity {
+        HOUR, DAY
+    }
+
+    @Id
+    @GeneratedValue(strategy= GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne
+    Driver driver;
+
+    @ManyToOne
+    City city;
+
+    @Enumerated(EnumType.STRING)
+    Granularity granularity;
+
+    Date bucketStart;
+    double totalDistance;
+    long deliveries;
+
+    public DriverDistanceRollup() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    public City getCity() {
+        return city;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public Date getBucketStart() {
+        return bucketStart;
+    }
+
+    public double getTotalDistance() {
+        return totalDistance;
+    }
+
+    public long getDeliveries() {
+        return deliveries;
+    }
+}
@@ -0,0 +1,60 @@
+package com.walt.model;
+
+import javax.persistence.*;
+import java.util.Date;
+
+@Entity
+public class DriverShift {
+
+    @Id
+    @GeneratedValue(strategy= GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne
+    Driver driver;
+
+    Date shiftStart;
+    Date shiftEnd;
+
+    public DriverShift() {
+    }
+
+    public DriverShift(Driver driver, Date shiftStart, Date shiftEnd) {
+        this.driver = driver;
+        this.shiftStart = shiftStart;
+        this.shiftEnd = shiftEnd;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    public void setDriver(Driver driver) {
+        this.driver = driver;
+    }
+
+    public Date getShiftStart() {
+        return shiftStart;
+    }
+
+    public void setShiftStart(Date shiftStart) {
+        this.shiftStart = shiftStart;
+    }
+
+    public Date getShiftEnd() {
+        return shiftEnd;
+    }
+
+    public void setShiftEnd(Date shiftEnd) {
+        this.shiftEnd = shiftEnd;
+    }
+
+    // Function that returns if the whole interval [start, end) is inside this shift.
+    public boolean covers(long start, long end) {
+        return shiftStart.getTime() <= start && end <= shiftEnd.getTime();
+    }
+}
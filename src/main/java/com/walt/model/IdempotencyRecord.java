@@ -0,0 +1,45 @@
+package com.walt.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Date;
+
+@Entity
+@Table(indexes = @Index(name = "idx_idempotency_created_at", columnList = "createdAt"))
+public class IdempotencyRecord {
+
+    @Id
+    private String idempotencyKey;
+
+    Long deliveryId;
+    String fingerprint;
+    Date createdAt;
+
+    public IdempotencyRecord() {
+    }
+
+    public IdempotencyRecord(String idempotencyKey, Long deliveryId, String fingerprint, Date createdAt) {
+        this.idempotencyKey = idempotencyKey;
+        this.deliveryId = deliveryId;
+        this.fingerprint = fingerprint;
+        this.createdAt = createdAt;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public Long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,50 @@
+package com.walt.model;
+
+import javax.persistence.Embeddable;
+
+@Embeddable
+public class Location {
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    Double latitude;
+    Double longitude;
+
+    public Location() {
+    }
+
+    public Location(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(Double longitude) {
+        this.longitude = longitude;
+    }
+
+    // Function that returns the great circle distance in Km to the other location (haversine formula).
+    public double distanceTo(Location other) {
+        double latitudeDelta = Math.toRadians(other.latitude - latitude);
+        double longitudeDelta = Math.toRadians(other.longitude - longitude);
+        double a = Math.pow(Math.sin(latitudeDelta / 2), 2)
+                + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(other.latitude)) * Math.pow(Math.sin(longitudeDelta / 2), 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+
+    // Function that returns if the location has both coordinates.
+    public static boolean isKnown(Location location) {
+        return location != null && location.latitude != null && location.longitude != null;
+    }
+}
@@ -1,17 +1,32 @@
 package com.walt.model;
 
+import com.walt.tenant.TenantContext;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
 
+// Cached in the second level cache for all the subclasses - Hibernate takes the cache settings only from the root entity.
+// Every entity belongs to a tenant (brand), names are unique only inside a tenant so lookups by name go through the tenant index.
 @Entity
+@Table(indexes = @Index(name = "idx_named_entity_tenant_name", columnList = "tenantId, dtype, name"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class NamedEntity {
 
     @Id
     @GeneratedValue(strategy= GenerationType.AUTO)
     private Long id;
     private String name;
+    private String tenantId;
 
     public NamedEntity() {
     }
@@ -28,6 +43,21 @@ public class NamedEntity {
         this.id = id;
     }
 
+    @PrePersist
+    void setTenantIdIfMissing() {
+        if (tenantId == null) {
+            tenantId = TenantContext.getTenantId();
+        }
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
     public String getName() {
         return name;
     }
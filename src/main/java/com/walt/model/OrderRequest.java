@@ -0,0 +1,40 @@
+package com.walt.model;
+
+import java.util.Date;
+
+// An order that is not assigned yet, one of a batch of orders sent together for the same time slot.
+public class OrderRequest {
+
+    private final Customer customer;
+    private final Restaurant restaurant;
+    private final Date deliveryTime;
+    private final Date deliveryEndTime;
+
+    // The delivery takes the configured delivery duration.
+    public OrderRequest(Customer customer, Restaurant restaurant, Date deliveryTime) {
+        this(customer, restaurant, deliveryTime, null);
+    }
+
+    public OrderRequest(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime) {
+        this.customer = customer;
+        this.restaurant = restaurant;
+        this.deliveryTime = deliveryTime;
+        this.deliveryEndTime = deliveryEndTime;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public Restaurant getRestaurant() {
+        return restaurant;
+    }
+
+    public Date getDeliveryTime() {
+        return deliveryTime;
+    }
+
+    public Date getDeliveryEndTime() {
+        return deliveryEndTime;
+    }
+}
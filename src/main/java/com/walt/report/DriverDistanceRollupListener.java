@@ -0,0 +1,27 @@
+package com.walt.report;
+
+import com.walt.model.Delivery;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+
+// JPA listener that keeps the driver distance rollups in sync with every saved or deleted delivery.
+public class DriverDistanceRollupListener {
+
+	@Autowired
+	@Lazy
+	private DriverDistanceRollupUpdater driverDistanceRollupUpdater;
+	
+	@PostPersist
+	public void onDeliverySaved(Delivery delivery) {
+		driverDistanceRollupUpdater.addDelivery(delivery);
+	}
+	
+	@PostRemove
+	public void onDeliveryRemoved(Delivery delivery) {
+		driverDistanceRollupUpdater.removeDelivery(delivery);
+	}
+}
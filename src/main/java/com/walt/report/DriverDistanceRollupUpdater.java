@@ -0,0 +1,120 @@
+package com.walt.report;
+
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.DriverDistanceRollup.Granularity;
+import com.walt.utils.Consts;
+
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+
+// Adds every delivery to the hourly and daily distance rollups of its driver.
+// Called from the JPA listener, inside the transaction that saves the delivery, so the rollups commit together with it.
+// On startup, when there are deliveries but no rollups yet - deliveries saved before the rollups were added - the rollups
+// are built once from the delivery table.
+@Component
+public class DriverDistanceRollupUpdater implements ApplicationRunner {
+
+	private static final String UPDATE_ROLLUP_QUERY = "UPDATE driver_distance_rollup SET total_distance = total_distance + ?, deliveries = deliveries + ? "
+			+ "WHERE driver_id = ? AND granularity = ? AND bucket_start = ?";
+	private static final String INSERT_ROLLUP_QUERY = "INSERT INTO driver_distance_rollup "
+			+ "(id, driver_id, city_id, granularity, bucket_start, total_distance, deliveries) "
+			+ "VALUES (NEXT VALUE FOR hibernate_sequence, ?, ?, ?, ?, ?, ?)";
+	// The granularity names are also the DATE_TRUNC units, both truncate the local time like getBucketStart.
+	private static final String BACKFILL_ROLLUPS_QUERY = "INSERT INTO driver_distance_rollup "
+			+ "(id, driver_id, city_id, granularity, bucket_start, total_distance, deliveries) "
+			+ "SELECT NEXT VALUE FOR hibernate_sequence, b.driver_id, b.city_id, '%1$s', b.bucket_start, b.total_distance, b.deliveries FROM "
+			+ "(SELECT del.driver_id, d.city_id, CAST(DATE_TRUNC('%1$s', del.delivery_time) AS TIMESTAMP) AS bucket_start, "
+			+ "SUM(del.distance) AS total_distance, COUNT(*) AS deliveries "
+			+ "FROM delivery del JOIN named_entity d ON d.id = del.driver_id GROUP BY del.driver_id, d.city_id, bucket_start) b";
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		backfillRollups();
+	}
+	
+	// Function that builds the rollups of all the deliveries if there are none yet, and returns if it did.
+	public boolean backfillRollups() {
+		Boolean backfilled = transactionTemplate.execute(status -> {
+			if(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM driver_distance_rollup", Long.class) > 0
+					|| jdbcTemplate.queryForObject("SELECT COUNT(*) FROM delivery", Long.class) == 0) {
+				return false;
+			}
+			for(Granularity granularity : Granularity.values()) {
+				jdbcTemplate.update(String.format(BACKFILL_ROLLUPS_QUERY, granularity.name()));
+			}
+			return true;
+		});
+		if(Boolean.TRUE.equals(backfilled)) { // Hibernate doesn't see these inserts, drop the rank reports cached without them.
+			entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegion(Consts.RANK_REPORTS_CACHE_REGION);
+			return true;
+		}
+		return false;
+	}
+	
+	public void addDelivery(Delivery delivery) {
+		updateRollups(delivery.getDriver(), delivery, delivery.getDistance(), 1);
+	}
+	
+	public void removeDelivery(Delivery delivery) {
+		updateRollups(delivery.getDriver(), delivery, -delivery.getDistance(), -1);
+	}
+	
+	// Function that moves the distance of a reassigned delivery from the old driver to its current driver.
+	public void moveDelivery(Delivery delivery, Driver oldDriver) {
+		updateRollups(oldDriver, delivery, -delivery.getDistance(), -1);
+		updateRollups(delivery.getDriver(), delivery, delivery.getDistance(), 1);
+	}
+	
+	private void updateRollups(Driver driver, Delivery delivery, double distance, int deliveries) {
+		if(driver == null) {
+			return;
+		}
+		for(Granularity granularity : Granularity.values()) {
+			Timestamp bucketStart = new Timestamp(getBucketStart(delivery.getDeliveryTime(), granularity).getTime());
+			Object[] updateArguments = {distance, deliveries, driver.getId(), granularity.name(), bucketStart};
+			if(jdbcTemplate.update(UPDATE_ROLLUP_QUERY, updateArguments) == 0) {
+				try { // First delivery of the driver in this bucket.
+					Long cityId = driver.getCity() == null ? null : driver.getCity().getId();
+					jdbcTemplate.update(INSERT_ROLLUP_QUERY, driver.getId(), cityId, granularity.name(), bucketStart, distance, deliveries);
+				} catch (DuplicateKeyException e) { // Another transaction created the bucket first.
+					jdbcTemplate.update(UPDATE_ROLLUP_QUERY, updateArguments);
+				}
+			}
+		}
+	}
+	
+	// Function that returns the start of the hour or the day that contains the given time, in the default time zone.
+	public static Date getBucketStart(Date time, Granularity granularity) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(time);
+		if(granularity == Granularity.DAY) {
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+		}
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+}
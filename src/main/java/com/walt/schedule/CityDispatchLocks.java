@@ -0,0 +1,21 @@
+package com.walt.schedule;
+
+import com.walt.model.City;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One lock for every city. Everything that picks or changes the driver of a delivery holds the lock of the delivery city
+// until its changes are committed, so two orders can't see the same driver as available at the same time.
+// The reactive service waits for the lock without blocking a thread, and may release it on another thread than the one that took it.
+@Component
+public class CityDispatchLocks {
+
+	private final Map<Long, DispatchLock> locks = new ConcurrentHashMap<>();
+	
+	public DispatchLock getLock(City city) {
+		return locks.computeIfAbsent(city.getId(), cityId -> new DispatchLock());
+	}
+}
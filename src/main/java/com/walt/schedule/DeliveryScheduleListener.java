@@ -0,0 +1,28 @@
+package com.walt.schedule;
+
+import com.walt.model.Delivery;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+
+// JPA listener that keeps the in memory driver schedules in sync with every saved or deleted delivery,
+// including deliveries saved directly through DeliveryRepository.
+public class DeliveryScheduleListener {
+
+	@Autowired
+	@Lazy
+	private DriverScheduleRegistry driverScheduleRegistry;
+	
+	@PostPersist
+	public void onDeliverySaved(Delivery delivery) {
+		driverScheduleRegistry.addDelivery(delivery);
+	}
+	
+	@PostRemove
+	public void onDeliveryRemoved(Delivery delivery) {
+		driverScheduleRegistry.removeDelivery(delivery);
+	}
+}
@@ -0,0 +1,67 @@
+package com.walt.schedule;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+// The dispatch lock of one city, shared by the blocking and the reactive services.
+// The blocking service waits for it on its own thread, the reactive service gets a future and waits without holding any thread.
+// Waiters get the lock in arrival order, unlock hands it directly to the next waiter, on the unlocking thread.
+public class DispatchLock {
+
+	private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+	private boolean locked;
+
+	// Function that takes the lock, waiting on the calling thread without being interrupted.
+	public void lock() {
+		lockAsync().join();
+	}
+
+	// Function that returns a future that completes when the caller holds the lock.
+	// A caller that stops waiting must call cancel with the future, and unlock if cancel returns false.
+	public CompletableFuture<Void> lockAsync() {
+		CompletableFuture<Void> waiter = new CompletableFuture<>();
+		synchronized (this) {
+			if(locked) {
+				waiters.add(waiter);
+				return waiter;
+			}
+			locked = true;
+		}
+		waiter.complete(null);
+		return waiter;
+	}
+
+	// Function that gives up waiting for the lock, and returns false if the lock was already handed to the waiter.
+	public boolean cancel(CompletableFuture<Void> waiter) {
+		if(!waiter.cancel(false)) {
+			return false;
+		}
+		synchronized (this) {
+			waiters.remove(waiter);
+		}
+		return true;
+	}
+
+	public void unlock() {
+		while(true) {
+			CompletableFuture<Void> waiter;
+			synchronized (this) {
+				waiter = waiters.poll();
+				if(waiter == null) {
+					locked = false;
+					return;
+				}
+			}
+			// Completed outside the monitor, as the waiter may go on running on this thread. A waiter cancelled in the meantime
+			// can't be completed, and the lock goes to the next one.
+			if(waiter.complete(null)) {
+				return;
+			}
+		}
+	}
+
+	public synchronized int getQueueLength() {
+		return waiters.size();
+	}
+}
@@ -0,0 +1,217 @@
+package com.walt.schedule;
+
+import com.walt.dao.DeliveryRepository;
+import com.walt.model.DeliverySummary;
+import com.walt.model.DriverDeliveriesCount;
+import com.walt.utils.Consts;
+import com.walt.utils.IntervalTree;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Periodically writes the loaded driver schedules to a snapshot file, and restores them from it on startup,
+// so a restarted node doesn't load the schedule of every driver from the database again.
+// On restore only deliveries saved or changed after the snapshot watermark are read and applied over the snapshot.
+// Only the schedules that were loaded when the snapshot was written are in it - drivers that got no order since the node
+// started are loaded from the database on first use after the restore, as before.
+// Driver lists by city and the distance totals are not in the snapshot, they come from the query cache and the rollup table.
+//
+// The file is written and read through a FileChannel and not mapped, a mapping is released only when the buffer is
+// garbage collected, and until then the file can't be replaced on Windows.
+//
+// File layout: magic, version, watermark, number of drivers, and then for every driver its id, number of slots and the
+// (delivery id, start, end) of every slot.
+@Component
+public class DispatchSnapshot implements ApplicationRunner, DisposableBean {
+	
+	private static final Logger log = LoggerFactory.getLogger(DispatchSnapshot.class);
+	
+	private static final int MAGIC = 0x57414c54;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE_IN_BYTES = 4 + 4 + 8 + 4;
+	private static final int DRIVER_HEADER_SIZE_IN_BYTES = 8 + 4;
+	private static final int SLOT_SIZE_IN_BYTES = 3 * 8;
+	private static final int WRITE_BUFFER_SIZE_IN_BYTES = 64 * 1024;
+	
+	// Drivers whose deliveries are counted in one query on restore.
+	private static final int COUNT_BATCH_SIZE = 1000;
+	
+	// A delivery is stamped before its transaction commits, but reaches the schedules only after it, so deliveries stamped
+	// shortly before the watermark may be missing from the snapshot. They are replayed too, replaying a delivery twice is harmless.
+	private static final long REPLAY_MARGIN_IN_MILLISECONDS = 60000;
+	
+	@Autowired
+	private DriverScheduleRegistry driverScheduleRegistry;
+	
+	@Autowired
+	private DeliveryRepository deliveryRepository;
+	
+	// No snapshots are written or restored when the path is empty.
+	@Value("${walt.snapshot.path:}")
+	private String snapshotPath;
+	
+	@Value("${walt.snapshot.interval-seconds:300}")
+	private long intervalInSeconds;
+	
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		if(snapshotPath.isEmpty()) {
+			return;
+		}
+		Path path = Paths.get(snapshotPath);
+		if(Files.exists(path)) {
+			try {
+				restoreSnapshot(path);
+			} catch (IOException | RuntimeException e) { // The schedules are loaded from the database instead.
+				log.warn("Failed to restore the dispatch snapshot " + path, e);
+			}
+		}
+		scheduler.scheduleWithFixedDelay(() -> writeSnapshotQuietly(path), intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+	}
+	
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+		if(!snapshotPath.isEmpty()) {
+			writeSnapshotQuietly(Paths.get(snapshotPath));
+		}
+	}
+	
+	// Function that writes the loaded schedules to the file. The file is written aside and then moved over the previous
+	// snapshot, so a crash while writing never leaves a broken snapshot.
+	public void writeSnapshot(Path path) throws IOException {
+		long watermark = System.currentTimeMillis();
+		Map<Long, long[]> schedules = driverScheduleRegistry.copySchedules();
+	
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE_IN_BYTES);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(watermark);
+			buffer.putInt(schedules.size());
+			for(Map.Entry<Long, long[]> schedule : schedules.entrySet()) {
+				writeIfFull(channel, buffer, DRIVER_HEADER_SIZE_IN_BYTES);
+				buffer.putLong(schedule.getKey());
+				buffer.putInt(schedule.getValue().length / 3);
+				for(long value : schedule.getValue()) {
+					writeIfFull(channel, buffer, 8);
+					buffer.putLong(value);
+				}
+			}
+			writeBuffer(channel, buffer);
+			channel.force(true);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	// Function that restores the schedules of the snapshot file, and returns the number of restored drivers.
+	public int restoreSnapshot(Path path) throws IOException {
+		Map<Long, IntervalTree<Long>> schedules = new HashMap<>();
+		Map<Long, Long> driverByDelivery = new HashMap<>();
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Read the whole file.
+			}
+			buffer.flip();
+		}
+		if(buffer.remaining() < HEADER_SIZE_IN_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new RuntimeException(Consts.INVALID_SNAPSHOT_MESSAGE);
+		}
+		long watermark = buffer.getLong();
+		int driversCount = buffer.getInt();
+		for(int i = 0; i < driversCount; i++) {
+			long driverId = buffer.getLong();
+			int slotsCount = buffer.getInt();
+			IntervalTree<Long> schedule = new IntervalTree<>();
+			for(int j = 0; j < slotsCount; j++) {
+				long deliveryId = buffer.getLong();
+				schedule.insert(buffer.getLong(), buffer.getLong(), deliveryId);
+				driverByDelivery.put(deliveryId, driverId);
+			}
+			schedules.put(driverId, schedule);
+		}
+	
+		// Apply the deliveries saved or reassigned since the snapshot.
+		for(DeliverySummary delivery : deliveryRepository.findDeliveriesModifiedSince(new Date(watermark - REPLAY_MARGIN_IN_MILLISECONDS))) {
+			long start = delivery.getDeliveryTime().getTime();
+			long end = delivery.getDeliveryEndTime() == null ? start + Consts.DEFAULT_DELIVERY_DURATION_IN_MILLISECONDS
+					: delivery.getDeliveryEndTime().getTime();
+			Long oldDriverId = driverByDelivery.get(delivery.getId());
+			if(oldDriverId != null) {
+				schedules.get(oldDriverId).remove(start, end, delivery.getId());
+			}
+			IntervalTree<Long> schedule = schedules.get(delivery.getDriverId());
+			if(schedule != null) {
+				schedule.insert(start, end, delivery.getId());
+			}
+		}
+	
+		// Deliveries cancelled since the snapshot can't be replayed, a driver whose schedule doesn't match the number of
+		// deliveries in the database is left out and loaded from the database on first use.
+		// Only the drivers of the snapshot are counted, in batches.
+		Map<Long, Long> deliveriesCountByDriver = new HashMap<>();
+		List<Long> driverIds = new ArrayList<>(schedules.keySet());
+		for(int from = 0; from < driverIds.size(); from += COUNT_BATCH_SIZE) {
+			List<Long> batch = driverIds.subList(from, Math.min(from + COUNT_BATCH_SIZE, driverIds.size()));
+			for(DriverDeliveriesCount count : deliveryRepository.countDeliveriesByDrivers(batch)) {
+				deliveriesCountByDriver.put(count.getDriverId(), count.getDeliveries());
+			}
+		}
+		schedules.entrySet().removeIf(schedule -> schedule.getValue().size() != deliveriesCountByDriver.getOrDefault(schedule.getKey(), 0L));
+	
+		driverScheduleRegistry.restoreSchedules(schedules);
+		return schedules.size();
+	}
+	
+	// Function that writes the buffer to the channel when it has no room for the given number of bytes.
+	private static void writeIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			writeBuffer(channel, buffer);
+		}
+	}
+	
+	private static void writeBuffer(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	private void writeSnapshotQuietly(Path path) {
+		try {
+			writeSnapshot(path);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Failed to write the dispatch snapshot " + path, e);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.walt.schedule;
+
+import com.walt.model.*;
+import com.walt.utils.Consts;
+import com.walt.utils.HungarianAlgorithm;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+// Assignment rules shared by the blocking and the reactive services.
+// It doesn't access the database - every service loads the data its own way and passes it in.
+@Component
+public class DriverAssigner {
+
+	// Higher than the total load of any real assignment, so the matching first assigns as many orders as it can.
+	private static final double UNAVAILABLE_DRIVER_COST = 1e12;
+	
+
+	// Function that checks the order details that don't need the database.
+	public void validateOrder(Customer customer, Restaurant restaurant, Date deliveryTime, Date deliveryEndTime, String tenantId) {
+		validateCustomerAndRestaurant(customer, restaurant, tenantId);
+		
+		if(!deliveryEndTime.after(deliveryTime)) { // Check if the delivery interval is valid.
+			throw new RuntimeException(Consts.INVALID_DELIVERY_INTERVAL_MESSAGE);
+		}
+	}
+	
+	// Function that checks that the customer, the restaurant and their city belong to the tenant of the order, and that they are
+	// in the same city. Cities are compared by id, as two brands may each have a city with the same name.
+	// The tenant is passed in, the reactive service checks it on threads that don't hold the tenant context.
+	public void validateCustomerAndRestaurant(Customer customer, Restaurant restaurant, String tenantId) {
+		validateTenant(customer, tenantId);
+		validateTenant(customer.getCity(), tenantId);
+		validateTenant(restaurant, tenantId);
+		validateTenant(restaurant.getCity(), tenantId);
+		if(!customer.getCity().getId().equals(restaurant.getCity().getId())) { // Check if the customer and the restaurant are from the same city.
+			throw new RuntimeException(Consts.NOT_SAME_CITY_MESSAGE);
+		}
+	}
+	
+	// Function that checks that an entity given by the caller belongs to the tenant of the request. Ids are unique across the tenants,
+	// but an entity or id of another brand must not be read or changed by this one.
+	public void validateTenant(NamedEntity entity, String tenantId) {
+		if(!tenantId.equals(entity.getTenantId())) {
+			throw new RuntimeException(Consts.NOT_SAME_TENANT_MESSAGE);
+		}
+	}
+	
+	// Function that gets all the drivers in the city with their shifts, and returns the drivers that are on shift during the whole
+	// delivery interval and free according to the given check.
+	public List<Driver> getAllAvailableDrivers(List<Driver> allDriversInCity, Map<Long, List<DriverShift>> shiftsByDriver, long start, long end,
+			Predicate<Driver> isDriverFree) {
+		if(allDriversInCity.isEmpty()) {
+			throw new RuntimeException(Consts.NO_DRIVERS_MESSAGE);
+		}
+		
+		// Filter the array and keep only the available drivers.
+		List<Driver> allAvailableDrivers = allDriversInCity.stream()
+				.filter(driver -> checkIfDriverOnShift(shiftsByDriver.get(driver.getId()), start, end))
+				.filter(isDriverFree)
+				.collect(Collectors.toList());
+		if(allAvailableDrivers.isEmpty()) {
+			throw new RuntimeException(Consts.NO_DRIVERS_AVAILABLE_MESSAGE);
+		}
+		return allAvailableDrivers;
+	}
+	
+	// Function that assigns a batch of orders of one city to different drivers, each order to a driver that is on shift and free
+	// for its whole interval. As many orders as possible are assigned, and among those assignments the one with the least busy drivers.
+	// Returns the driver of every order, or null for an order that got no driver or wasn't reached within the time budget of the matching.
+	public List<Driver> matchOrdersToDrivers(List<Driver> allDriversInCity, Map<Long, List<DriverShift>> shiftsByDriver, List<long[]> orderIntervals,
+			BiPredicate<Driver, long[]> isDriverFree, ToIntFunction<Driver> deliveriesCount, long timeBudgetNanos) {
+		int orders = orderIntervals.size();
+		int drivers = allDriversInCity.size();
+		
+		// Dummy drivers pad the matrix when there are more orders than drivers, an order matched to one of them gets no driver.
+		double[][] costs = new double[orders][Math.max(orders, drivers)];
+		for(double[] orderCosts : costs) {
+			Arrays.fill(orderCosts, UNAVAILABLE_DRIVER_COST);
+		}
+		for(int j = 0; j < drivers; j++) {
+			Driver driver = allDriversInCity.get(j);
+			int driverDeliveries = deliveriesCount.applyAsInt(driver);
+			for(int i = 0; i < orders; i++) {
+				long[] interval = orderIntervals.get(i);
+				if(checkIfDriverOnShift(shiftsByDriver.get(driver.getId()), interval[0], interval[1]) && isDriverFree.test(driver, interval)) {
+					costs[i][j] = driverDeliveries;
+				}
+			}
+		}
+		
+		int[] driverOfOrder = HungarianAlgorithm.assign(costs, timeBudgetNanos);
+		List<Driver> matchedDrivers = new ArrayList<>();
+		for(int i = 0; i < orders; i++) {
+			int j = driverOfOrder[i];
+			matchedDrivers.add(j >= 0 && j < drivers && costs[i][j] < UNAVAILABLE_DRIVER_COST ? allDriversInCity.get(j) : null);
+		}
+		return matchedDrivers;
+	}
+	
+	// Function that gets the shifts of a driver and a delivery interval, and returns if one of the shifts covers the whole delivery.
+	// Driver without any shift is considered available at any time.
+	public boolean checkIfDriverOnShift(List<DriverShift> driverShifts, long start, long end) {
+		if(driverShifts == null) {
+			return true;
+		}
+		for(DriverShift shift : driverShifts) {
+			if(shift.covers(start, end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Function that gets list of all available drivers right now, and returns the least busy one according to number of deliveries that the driver have.
+	public Driver getTheLeastBusyDriverByDeliveries(List<Driver> allAvailableDrivers, ToIntFunction<Driver> deliveriesCount) {
+		Driver leastBusyDriver = new Driver();
+		double temp = -1;
+		for(Driver driver : allAvailableDrivers) {
+			int driverDeliveries = deliveriesCount.applyAsInt(driver);
+			
+			if(temp == -1) { // If this is the first driver in the list, save him.
+				temp = driverDeliveries;
+				leastBusyDriver = driver;
+			} else {
+				if(driverDeliveries < temp) {
+					// If the number of deliveries of this driver is smaller then the number of deliveries of the saved driver - switch between them.
+					temp = driverDeliveries;
+					leastBusyDriver = driver;
+				}
+			}
+		}
+		return leastBusyDriver;
+	}
+}
@@ -0,0 +1,151 @@
+package com.walt.schedule;
+
+import com.walt.dao.DeliveryRepository;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.utils.Consts;
+import com.walt.utils.IntervalTree;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In memory schedule of every driver, kept as an interval tree of the driver's deliveries.
+// A driver's schedule is loaded from the database on first use and then kept up to date by DeliveryScheduleListener.
+// Changes made inside a transaction are applied only after it commits, so a rolled back delivery never blocks a driver.
+@Component
+public class DriverScheduleRegistry {
+
+	@Autowired
+	private DeliveryRepository deliveryRepository;
+	
+	private final Map<Long, IntervalTree<Long>> schedules = new ConcurrentHashMap<>();
+	
+	// Function that returns if the driver has no delivery overlapping the interval [start, end).
+	public boolean isDriverAvailable(Driver driver, long start, long end) {
+		IntervalTree<Long> schedule = getSchedule(driver);
+		synchronized (schedule) {
+			return !schedule.overlaps(start, end);
+		}
+	}
+	
+	// Function that returns the number of deliveries of the driver, used as the driver load.
+	public int getDeliveriesCount(Driver driver) {
+		IntervalTree<Long> schedule = getSchedule(driver);
+		synchronized (schedule) {
+			return schedule.size();
+		}
+	}
+	
+	// Function that adds a saved delivery to its driver schedule, if this schedule is already loaded.
+	public void addDelivery(Delivery delivery) {
+		if(delivery.getDriver() == null || delivery.getDriver().getId() == null) {
+			return;
+		}
+		long driverId = delivery.getDriver().getId();
+		long start = getStart(delivery);
+		long end = getEnd(delivery);
+		runAfterCommit(() -> schedules.computeIfPresent(driverId, (id, schedule) -> {
+			synchronized (schedule) {
+				schedule.insert(start, end, delivery.getId());
+			}
+			return schedule;
+		}));
+	}
+	
+	// Function that removes a deleted delivery from its driver schedule, if this schedule is already loaded.
+	public void removeDelivery(Delivery delivery) {
+		if(delivery.getDriver() == null || delivery.getDriver().getId() == null) {
+			return;
+		}
+		removeDelivery(delivery, delivery.getDriver());
+	}
+	
+	// Function that moves a delivery that was reassigned from the old driver to its current driver.
+	public void moveDelivery(Delivery delivery, Driver oldDriver) {
+		removeDelivery(delivery, oldDriver);
+		addDelivery(delivery);
+	}
+	
+	private void removeDelivery(Delivery delivery, Driver driver) {
+		long start = getStart(delivery);
+		long end = getEnd(delivery);
+		runAfterCommit(() -> schedules.computeIfPresent(driver.getId(), (id, schedule) -> {
+			synchronized (schedule) {
+				schedule.remove(start, end, delivery.getId());
+			}
+			return schedule;
+		}));
+	}
+	
+	private void runAfterCommit(Runnable action) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+	
+	// Function that returns a copy of the loaded schedules by driver id, every schedule as (delivery id, start, end) triples.
+	public Map<Long, long[]> copySchedules() {
+		Map<Long, long[]> copy = new HashMap<>();
+		for(Map.Entry<Long, IntervalTree<Long>> entry : schedules.entrySet()) {
+			IntervalTree<Long> schedule = entry.getValue();
+			synchronized (schedule) {
+				long[] slots = new long[schedule.size() * 3];
+				int[] index = {0};
+				schedule.forEach((start, end, deliveryId) -> {
+					slots[index[0]++] = deliveryId;
+					slots[index[0]++] = start;
+					slots[index[0]++] = end;
+				});
+				copy.put(entry.getKey(), slots);
+			}
+		}
+		return copy;
+	}
+	
+	// Function that adds restored schedules, a driver whose schedule was already loaded from the database keeps it.
+	public void restoreSchedules(Map<Long, IntervalTree<Long>> restoredSchedules) {
+		restoredSchedules.forEach(schedules::putIfAbsent);
+	}
+	
+	// Function that drops all the loaded schedules, they are loaded again from the database on next use.
+	public void clear() {
+		schedules.clear();
+	}
+	
+	private IntervalTree<Long> getSchedule(Driver driver) {
+		return schedules.computeIfAbsent(driver.getId(), driverId -> loadSchedule(driver));
+	}
+	
+	private IntervalTree<Long> loadSchedule(Driver driver) {
+		IntervalTree<Long> schedule = new IntervalTree<>();
+		for(Delivery delivery : deliveryRepository.findAllDeliveriesByDriver(driver)) {
+			schedule.insert(getStart(delivery), getEnd(delivery), delivery.getId());
+		}
+		return schedule;
+	}
+	
+	private long getStart(Delivery delivery) {
+		return delivery.getDeliveryTime().getTime();
+	}
+	
+	// Deliveries saved before the end time was added are treated as taking the default duration.
+	private long getEnd(Delivery delivery) {
+		if(delivery.getDeliveryEndTime() == null) {
+			return getStart(delivery) + Consts.DEFAULT_DELIVERY_DURATION_IN_MILLISECONDS;
+		}
+		return delivery.getDeliveryEndTime().getTime();
+	}
+}
@@ -0,0 +1,23 @@
+package com.walt.tenant;
+
+import com.walt.utils.Consts;
+
+// The tenant (brand) of the current thread. Entities are saved in it, and the tenant scoped repository queries and the
+// quotas use it. A thread that didn't set a tenant works in the default tenant.
+public class TenantContext {
+
+	private static final ThreadLocal<String> currentTenantId = new ThreadLocal<>();
+	
+	public static String getTenantId() {
+		String tenantId = currentTenantId.get();
+		return tenantId == null ? Consts.DEFAULT_TENANT_ID : tenantId;
+	}
+	
+	public static void setTenantId(String tenantId) {
+		currentTenantId.set(tenantId);
+	}
+	
+	public static void clear() {
+		currentTenantId.remove();
+	}
+}
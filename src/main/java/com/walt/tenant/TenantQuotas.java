@@ -0,0 +1,129 @@
+package com.walt.tenant;
+
+import com.walt.utils.Consts;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Per tenant limits on new orders, so a traffic spike of one brand can't starve the assignments of the others:
+// a token bucket of orders per second with a burst, and a maximum of orders being assigned at the same time, which keeps
+// one tenant from holding all the database connections. An order over the quota is rejected right away.
+// A run or a batch of orders takes a token and a concurrent order for every one of its orders, a request with more orders than
+// the burst or the concurrent orders could never fit and is rejected with its own message instead of waiting for quota.
+// Limits are read from walt.tenant.quotas.<tenant>.orders-per-second / burst / max-concurrent-orders, with the
+// walt.tenant.quotas.default-* values for tenants that have none. Zero means unlimited.
+@Component
+public class TenantQuotas {
+
+	@Autowired
+	private Environment environment;
+	
+	private final Map<String, TenantQuota> quotas = new ConcurrentHashMap<>();
+	
+	// Function that takes quota for the given number of orders of the tenant, and throws if the tenant is over its quota.
+	// Every successful call must be followed by release of the same number of orders once they are assigned.
+	public void acquire(String tenantId, int orders) {
+		TenantQuota quota = quotas.computeIfAbsent(tenantId, this::createQuota);
+		if(!quota.canEverAdmit(orders)) {
+			throw new RuntimeException(Consts.TENANT_QUOTA_TOO_MANY_ORDERS_MESSAGE);
+		}
+		if(quota.concurrentOrders != null && !quota.concurrentOrders.tryAcquire(orders)) {
+			throw new RuntimeException(Consts.TENANT_QUOTA_EXCEEDED_MESSAGE);
+		}
+		if(!quota.tryTakeTokens(orders)) {
+			release(tenantId, orders);
+			throw new RuntimeException(Consts.TENANT_QUOTA_EXCEEDED_MESSAGE);
+		}
+	}
+	
+	// Function that takes quota for as many of the given orders of the tenant as fit right now, and returns their number.
+	// Throws if not even one order fits. Every successful call must be followed by release of the returned number of orders.
+	public int acquireUpTo(String tenantId, int orders) {
+		TenantQuota quota = quotas.computeIfAbsent(tenantId, this::createQuota);
+		int admittedOrders = orders;
+		if(quota.concurrentOrders != null) {
+			admittedOrders = 0;
+			while(admittedOrders < orders && quota.concurrentOrders.tryAcquire()) {
+				admittedOrders++;
+			}
+		}
+		int ordersWithTokens = quota.takeTokensUpTo(admittedOrders);
+		release(tenantId, admittedOrders - ordersWithTokens);
+		if(ordersWithTokens == 0) {
+			throw new RuntimeException(Consts.TENANT_QUOTA_EXCEEDED_MESSAGE);
+		}
+		return ordersWithTokens;
+	}
+	
+	public void release(String tenantId, int orders) {
+		TenantQuota quota = quotas.get(tenantId);
+		if(quota != null && quota.concurrentOrders != null) {
+			quota.concurrentOrders.release(orders);
+		}
+	}
+	
+	private TenantQuota createQuota(String tenantId) {
+		return new TenantQuota(getLimit(tenantId, "orders-per-second"), getLimit(tenantId, "burst"),
+				(int) getLimit(tenantId, "max-concurrent-orders"));
+	}
+	
+	private double getLimit(String tenantId, String limit) {
+		double defaultLimit = environment.getProperty("walt.tenant.quotas.default-" + limit, Double.class, 0.0);
+		return environment.getProperty("walt.tenant.quotas." + tenantId + "." + limit, Double.class, defaultLimit);
+	}
+	
+	private static class TenantQuota {
+		final double ordersPerSecond;
+		final double burst;
+		final int maxConcurrentOrders;
+		final Semaphore concurrentOrders;
+		double tokens;
+		long lastRefillNanos = System.nanoTime();
+		
+		TenantQuota(double ordersPerSecond, double burst, int maxConcurrentOrders) {
+			this.ordersPerSecond = ordersPerSecond;
+			this.burst = Math.max(burst, ordersPerSecond); // At least one second of orders.
+			this.maxConcurrentOrders = maxConcurrentOrders;
+			this.concurrentOrders = maxConcurrentOrders > 0 ? new Semaphore(maxConcurrentOrders) : null;
+			this.tokens = this.burst;
+		}
+		
+		boolean canEverAdmit(int orders) {
+			return (ordersPerSecond <= 0 || orders <= burst) && (maxConcurrentOrders <= 0 || orders <= maxConcurrentOrders);
+		}
+		
+		synchronized boolean tryTakeTokens(int orders) {
+			if(ordersPerSecond <= 0) {
+				return true;
+			}
+			refill();
+			if(tokens < orders) {
+				return false;
+			}
+			tokens -= orders;
+			return true;
+		}
+		
+		synchronized int takeTokensUpTo(int orders) {
+			if(ordersPerSecond <= 0) {
+				return orders;
+			}
+			refill();
+			int takenOrders = (int) Math.min(orders, Math.floor(tokens));
+			tokens -= takenOrders;
+			return takenOrders;
+		}
+		
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ordersPerSecond / TimeUnit.SECONDS.toNanos(1));
+			lastRefillNanos = now;
+		}
+	}
+}
@@ -5,4 +5,22 @@ public class Consts {
 	public static final String NOT_SAME_CITY_MESSAGE = "Customer and restaurant not in the same city.";
 	public static final String NO_DRIVERS_MESSAGE = "There are no drivers in this city.";
 	public static final String NO_DRIVERS_AVAILABLE_MESSAGE = "There are no drivers available in this city at this time.";
+	public static final String DELIVERY_NOT_FOUND_MESSAGE = "Delivery doesn't exist.";
+	public static final String INVALID_SNAPSHOT_MESSAGE = "The dispatch snapshot file is not valid.";
+	public static final String INVALID_DELIVERY_INTERVAL_MESSAGE = "Delivery end time must be after the delivery start time.";
+	public static final String NOT_SAME_TENANT_MESSAGE = "The customer, restaurant, city, driver or delivery belongs to another brand.";
+	public static final String TENANT_QUOTA_TOO_MANY_ORDERS_MESSAGE = "The request has more orders than this brand may place at once.";
+	public static final String TENANT_QUOTA_EXCEEDED_MESSAGE = "The orders quota of this brand was exceeded, try again later.";
+	public static final String IDEMPOTENCY_KEY_REUSED_MESSAGE = "The idempotency key was already used for an order with another customer, restaurant or delivery time.";
+	public static final String ORDER_NOT_ASSIGNED_MESSAGE = "The order got no driver in its slot, no driver was available or the orders quota of this brand was exceeded.";
+	
+	public static final long DEFAULT_DELIVERY_DURATION_IN_MILLISECONDS = 3600000;
+	
+	public static final String DRIVERS_BY_CITY_CACHE_REGION = "driversByCity";
+	public static final String RANK_REPORTS_CACHE_REGION = "rankReports";
+	
+	public static final String DEFAULT_TENANT_ID = "default";
+	// SpEL parameter of the current tenant for repository queries. It is bound like any other parameter, so cached query
+	// results are kept apart by tenant.
+	public static final String CURRENT_TENANT_PARAMETER = ":#{T(com.walt.tenant.TenantContext).getTenantId()}";
 }
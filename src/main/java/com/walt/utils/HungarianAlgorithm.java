@@ -0,0 +1,80 @@
+package com.walt.utils;
+
+import java.util.Arrays;
+
+// Minimum cost assignment of rows to columns (Hungarian algorithm with potentials), O(rows^2 * columns).
+// Every row gets a different column. Rows are added to the assignment one at a time, so when the time budget runs out the rows
+// added so far keep an optimal assignment among themselves and the rest are left unassigned.
+public class HungarianAlgorithm {
+
+    // Function that returns the column of every row, or -1 for a row that wasn't assigned within the time budget.
+    // The budget is counted from the call, so building the costs doesn't use it up, Long.MAX_VALUE means no budget.
+    // There must be at least as many columns as rows, pairs that must not be matched should get a cost higher than any real one.
+    public static int[] assign(double[][] costs, long timeBudgetNanos) {
+        long startNanos = System.nanoTime();
+        int rows = costs.length;
+        int columns = rows == 0 ? 0 : costs[0].length;
+        if (rows > columns) {
+            throw new IllegalArgumentException("More rows than columns: " + rows + " > " + columns);
+        }
+
+        // 1-based arrays, index 0 is a virtual column used to start the augmenting path of the added row.
+        double[] rowPotential = new double[rows + 1];
+        double[] columnPotential = new double[columns + 1];
+        int[] rowOfColumn = new int[columns + 1];
+        int[] previousColumn = new int[columns + 1];
+        double[] minSlack = new double[columns + 1];
+        boolean[] used = new boolean[columns + 1];
+
+        for (int row = 1; row <= rows && System.nanoTime() - startNanos < timeBudgetNanos; row++) {
+            rowOfColumn[0] = row;
+            int column = 0;
+            Arrays.fill(minSlack, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            // Grow the alternating tree until it reaches a free column.
+            do {
+                used[column] = true;
+                int currentRow = rowOfColumn[column];
+                double delta = Double.POSITIVE_INFINITY;
+                int nextColumn = 0;
+                for (int j = 1; j <= columns; j++) {
+                    if (!used[j]) {
+                        double slack = costs[currentRow - 1][j - 1] - rowPotential[currentRow] - columnPotential[j];
+                        if (slack < minSlack[j]) {
+                            minSlack[j] = slack;
+                            previousColumn[j] = column;
+                        }
+                        if (minSlack[j] < delta) {
+                            delta = minSlack[j];
+                            nextColumn = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= columns; j++) {
+                    if (used[j]) {
+                        rowPotential[rowOfColumn[j]] += delta;
+                        columnPotential[j] -= delta;
+                    } else {
+                        minSlack[j] -= delta;
+                    }
+                }
+                column = nextColumn;
+            } while (rowOfColumn[column] != 0);
+            // Flip the augmenting path.
+            do {
+                int previous = previousColumn[column];
+                rowOfColumn[column] = rowOfColumn[previous];
+                column = previous;
+            } while (column != 0);
+        }
+
+        int[] columnOfRow = new int[rows];
+        Arrays.fill(columnOfRow, -1);
+        for (int j = 1; j <= columns; j++) {
+            if (rowOfColumn[j] != 0) {
+                columnOfRow[rowOfColumn[j] - 1] = j - 1;
+            }
+        }
+        return columnOfRow;
+    }
+}
@@ -0,0 +1,218 @@
+package com.walt.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Augmented AVL tree of half-open intervals [start, end).
+// Every node keeps the max end of its subtree, so overlap queries run in O(log n + k).
+public class IntervalTree<T extends Comparable<T>> {
+
+    private Node<T> root;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void insert(long start, long end, T value) {
+        root = insert(root, new Node<>(start, end, value));
+    }
+
+    public boolean remove(long start, long end, T value) {
+        int sizeBefore = size;
+        root = remove(root, start, end, value);
+        return size < sizeBefore;
+    }
+
+    // Function that returns if any interval in the tree overlaps [start, end).
+    public boolean overlaps(long start, long end) {
+        Node<T> node = root;
+        while (node != null) {
+            if (node.start < end && start < node.end) {
+                return true;
+            }
+            // If the left subtree may contain an overlapping interval go left, otherwise only the right side can.
+            if (node.left != null && node.left.maxEnd > start) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return false;
+    }
+
+    // Function that returns the values of all the intervals that overlap [start, end), ordered by start.
+    public List<T> findOverlapping(long start, long end) {
+        List<T> result = new ArrayList<>();
+        collectOverlapping(root, start, end, result);
+        return result;
+    }
+
+    // Function that visits all the intervals of the tree, ordered by start.
+    public void forEach(IntervalVisitor<T> visitor) {
+        forEach(root, visitor);
+    }
+
+    private void forEach(Node<T> node, IntervalVisitor<T> visitor) {
+        if (node == null) {
+            return;
+        }
+        forEach(node.left, visitor);
+        visitor.visit(node.start, node.end, node.value);
+        forEach(node.right, visitor);
+    }
+
+    private void collectOverlapping(Node<T> node, long start, long end, List<T> result) {
+        if (node == null || node.maxEnd <= start) {
+            return;
+        }
+        collectOverlapping(node.left, start, end, result);
+        if (node.start < end) {
+            if (start < node.end) {
+                result.add(node.value);
+            }
+            // Intervals on the right start after this one, so they can overlap only if this one starts before the end.
+            collectOverlapping(node.right, start, end, result);
+        }
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> newNode) {
+        if (node == null) {
+            size++;
+            return newNode;
+        }
+        int cmp = compare(newNode.start, newNode.end, newNode.value, node);
+        if (cmp < 0) {
+            node.left = insert(node.left, newNode);
+        } else if (cmp > 0) {
+            node.right = insert(node.right, newNode);
+        } else {
+            return node; // Same interval and value are already in the tree.
+        }
+        return balance(node);
+    }
+
+    private Node<T> remove(Node<T> node, long start, long end, T value) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(start, end, value, node);
+        if (cmp < 0) {
+            node.left = remove(node.left, start, end, value);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, start, end, value);
+        } else {
+            size--;
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            // Replace the removed node with its successor.
+            Node<T> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            node.right = removeMin(node.right);
+            successor.right = node.right;
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private Node<T> removeMin(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    private int compare(long start, long end, T value, Node<T> node) {
+        if (start != node.start) {
+            return Long.compare(start, node.start);
+        }
+        if (end != node.end) {
+            return Long.compare(end, node.end);
+        }
+        return value.compareTo(node.value);
+    }
+
+    private Node<T> balance(Node<T> node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        Node<T> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        Node<T> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private void update(Node<T> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.maxEnd = node.end;
+        if (node.left != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.left.maxEnd);
+        }
+        if (node.right != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.right.maxEnd);
+        }
+    }
+
+    private int height(Node<T> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    public interface IntervalVisitor<T> {
+        void visit(long start, long end, T value);
+    }
+
+    private static class Node<T> {
+        final long start;
+        final long end;
+        final T value;
+        long maxEnd;
+        int height = 1;
+        Node<T> left;
+        Node<T> right;
+
+        Node(long start, long end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+            this.maxEnd = end;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.DriverShift;
+import com.walt.model.OrderRequest;
+import com.walt.model.Restaurant;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.annotation.Resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+// Compares the greedy assignment of one order at a time with the min cost matching of the orders of a slot.
+// Every slot is one hour with drivers on shifts of different lengths and orders of different lengths, generated twice from the
+// same seed - once in a city that gets its orders one by one and once in a city that gets them as one batch.
+// Not part of the regular build, run it with: mvn test -Pbenchmark -Dtest=SlotMatchingBenchmark
+@SpringBootTest()
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class SlotMatchingBenchmark {
+
+    private static final long SEED = Long.getLong("walt.benchmark.seed", 42);
+    private static final int SLOTS = Integer.getInteger("walt.benchmark.slots", 20);
+    private static final int DRIVERS = Integer.getInteger("walt.benchmark.drivers", 40);
+    private static final int ORDERS_PER_SLOT = Integer.getInteger("walt.benchmark.orders-per-slot", 40);
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Autowired
+    WaltService waltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    DriverShiftRepository driverShiftRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    @Test
+    public void benchmarkGreedyAgainstSlotMatching() {
+        Date firstSlot = new Date(new Date().getTime() + 24 * HOUR);
+        List<OrderRequest> greedyOrders = createCity("Greedy", firstSlot);
+        List<OrderRequest> matchingOrders = createCity("Matching", firstSlot);
+
+        // Greedy - the orders of every slot one by one, in arrival order.
+        int greedyAssigned = 0;
+        long greedyNanos = 0;
+        for (OrderRequest order : greedyOrders) {
+            long start = System.nanoTime();
+            try {
+                waltService.createOrderAndAssignDriver(order.getCustomer(), order.getRestaurant(), order.getDeliveryTime(), order.getDeliveryEndTime());
+                greedyAssigned++;
+            } catch (RuntimeException e) {
+                // No driver available.
+            }
+            greedyNanos += System.nanoTime() - start;
+        }
+
+        // Matching - all the orders of a slot at once.
+        int matchingAssigned = 0;
+        long matchingNanos = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            List<OrderRequest> slotOrders = matchingOrders.subList(slot * ORDERS_PER_SLOT, (slot + 1) * ORDERS_PER_SLOT);
+            long start = System.nanoTime();
+            for (Delivery delivery : waltService.createOrdersAndAssignDrivers(slotOrders)) {
+                if (delivery != null) {
+                    matchingAssigned++;
+                }
+            }
+            matchingNanos += System.nanoTime() - start;
+        }
+
+        int orders = SLOTS * ORDERS_PER_SLOT;
+        System.out.println("==== Greedy vs slot matching - " + SLOTS + " slots, " + DRIVERS + " drivers, " + ORDERS_PER_SLOT + " orders per slot ====");
+        printResult("Greedy", greedyAssigned, orders, greedyNanos);
+        printResult("Slot matching", matchingAssigned, orders, matchingNanos);
+    }
+
+    // Function that creates a city with its drivers, shifts and customers, and returns the orders of all the slots.
+    // The same seed gives every city the same shifts and orders.
+    private List<OrderRequest> createCity(String name, Date firstSlot) {
+        Random random = new Random(SEED);
+        City city = cityRepository.save(new City(name));
+        Restaurant restaurant = restaurantRepository.save(new Restaurant(name + " restaurant", city, "address"));
+        Customer customer = customerRepository.save(new Customer(name + " customer", city, "address"));
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < DRIVERS; i++) {
+            drivers.add(new Driver(name + " driver " + i, city));
+        }
+        driverRepository.saveAll(drivers);
+
+        // In every slot a driver works from 0 to 30 minutes into the hour, for 15 to 60 minutes.
+        List<DriverShift> shifts = new ArrayList<>();
+        List<OrderRequest> orders = new ArrayList<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long slotStart = firstSlot.getTime() + slot * HOUR;
+            for (Driver driver : drivers) {
+                long shiftStart = slotStart + random.nextInt(31) * MINUTE;
+                shifts.add(new DriverShift(driver, new Date(shiftStart), new Date(shiftStart + (15 + random.nextInt(46)) * MINUTE)));
+            }
+            // Orders start in the first 40 minutes and take 10 to 20 minutes.
+            for (int i = 0; i < ORDERS_PER_SLOT; i++) {
+                long orderStart = slotStart + random.nextInt(41) * MINUTE;
+                orders.add(new OrderRequest(customer, restaurant, new Date(orderStart), new Date(orderStart + (10 + random.nextInt(11)) * MINUTE)));
+            }
+        }
+        driverShiftRepository.saveAll(shifts);
+        return orders;
+    }
+
+    private void printResult(String name, int assigned, int orders, long elapsedNanos) {
+        System.out.println(String.format("%-14s assigned %d of %d orders (%.1f%%) in %.1f ms, %.3f ms per order", name, assigned, orders,
+                assigned * 100.0 / orders, elapsedNanos / 1e6, elapsedNanos / 1e6 / orders));
+    }
+}
@@ -0,0 +1,97 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.diagnostics.QueryDiagnostics;
+import com.walt.diagnostics.RepositoryMethodStats;
+import com.walt.diagnostics.RepositoryQueriesEndpoint;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Driver;
+import com.walt.model.Restaurant;
+
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.annotation.Resource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// The query diagnostics are off by default, so they are tested in a context of their own and WaltTest runs the shipped configuration.
+@SpringBootTest(properties = "walt.diagnostics.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class WaltDiagnosticsTest {
+
+    @Autowired
+    WaltService waltService;
+
+    @Autowired
+    QueryDiagnostics queryDiagnostics;
+
+    @Autowired
+    RepositoryQueriesEndpoint repositoryQueriesEndpoint;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    @BeforeEach()
+    public void prepareData(){
+
+        City tlv = cityRepository.save(new City("Tel-Aviv"));
+        driverRepository.saveAll(Lists.newArrayList(new Driver("Mary", tlv), new Driver("Patricia", tlv), new Driver("Daniel", tlv)));
+        customerRepository.save(new Customer("Beethoven", tlv, "Ludwig van Beethoven"));
+        restaurantRepository.save(new Restaurant("cafe", tlv, "Coffee shop"));
+    }
+
+    @Test
+    public void testQueryDiagnosticsFlagsNPlusOneAndExplainsQueries() {
+    	Customer customer = customerRepository.findByName("Beethoven");
+    	Restaurant restaurant = restaurantRepository.findByName("cafe");
+    	queryDiagnostics.reset();
+
+    	// The first order loads the schedules of the 3 drivers of Tel-Aviv one by one, expecting it to be flagged as N+1.
+    	waltService.createOrderAndAssignDriver(customer, restaurant, new Date());
+    	RepositoryMethodStats schedulesStats = queryDiagnostics.getStats("DeliveryRepository.findAllDeliveriesByDriver");
+    	assertEquals(3, schedulesStats.getCalls());
+    	assertEquals(1, schedulesStats.getNPlusOneOperations());
+    	assertTrue(schedulesStats.getNPlusOneOperationNames().contains("createOrderAndAssignDriver"));
+    	assertTrue(schedulesStats.getStatements() >= 3);
+
+    	// The second order uses the loaded schedules.
+    	waltService.createOrderAndAssignDriver(customer, restaurant, new Date());
+    	assertEquals(3, schedulesStats.getCalls());
+    	RepositoryMethodStats driversStats = queryDiagnostics.getStats("DriverRepository.findAllDriversByCity");
+    	assertEquals(2, driversStats.getCalls());
+    	assertEquals(6, driversStats.getRows());
+    	assertEquals(0, driversStats.getNPlusOneOperations());
+    	assertTrue(repositoryQueriesEndpoint.getReport().contains(schedulesStats));
+
+    	// Expecting the plan of the sample SQL of the schedule query, and nothing for a method that was never called.
+    	Map<String, Object> explanation = repositoryQueriesEndpoint.explain("DeliveryRepository.findAllDeliveriesByDriver");
+    	assertEquals("DeliveryRepository.findAllDeliveriesByDriver", explanation.get("method"));
+    	assertEquals(schedulesStats.getSampleSql(), explanation.get("sql"));
+    	assertTrue(!((List<?>) explanation.get("plan")).isEmpty());
+    	assertNull(repositoryQueriesEndpoint.explain("DeliveryRepository.noSuchMethod"));
+
+    	// Expecting the service to stay injectable by its class behind the operation proxy.
+    	assertTrue(waltService instanceof WaltServiceImpl);
+    }
+}
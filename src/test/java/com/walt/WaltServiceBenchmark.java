@@ -0,0 +1,152 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.Restaurant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compares the blocking and the reactive services on the same load.
+// Not part of the regular build, run it with: mvn test -Pbenchmark
+// Note that H2 runs every statement on the calling thread, so the R2DBC driver can't release it while the database works.
+// The numbers show the overhead of each service, the thread savings need an R2DBC driver with real non blocking IO.
+@SpringBootTest()
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class WaltServiceBenchmark {
+
+    private static final int ORDERS = Integer.getInteger("walt.benchmark.orders", 2000);
+    private static final int DRIVERS = Integer.getInteger("walt.benchmark.drivers", 200);
+    private static final int BLOCKING_THREADS = Integer.getInteger("walt.benchmark.threads", 16);
+    private static final int REACTIVE_CONCURRENCY = Integer.getInteger("walt.benchmark.concurrency", 256);
+    private static final long HOUR = 3600000;
+
+    @Autowired
+    WaltService waltService;
+
+    @Autowired
+    ReactiveWaltService reactiveWaltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    @Resource
+    DeliveryRepository deliveryRepository;
+
+    Customer customer;
+    Restaurant restaurant;
+
+    @BeforeEach()
+    public void prepareData() {
+        City city = new City("Benchmark");
+        cityRepository.save(city);
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < DRIVERS; i++) {
+            drivers.add(new Driver("Driver" + i, city));
+        }
+        driverRepository.saveAll(drivers);
+
+        customer = customerRepository.save(new Customer("Customer", city, "address"));
+        restaurant = restaurantRepository.save(new Restaurant("Restaurant", city, "address"));
+    }
+
+    @Test
+    public void benchmarkBlockingService() throws Exception {
+        Date firstSlot = new Date();
+        AtomicInteger rejected = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(BLOCKING_THREADS);
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            Date deliveryTime = getDeliveryTime(firstSlot, i);
+            futures.add(executor.submit(() -> {
+                try {
+                    waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+                } catch (RuntimeException e) {
+                    rejected.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        printResult("Blocking (" + BLOCKING_THREADS + " threads)", elapsed, rejected.get(), countDoubleBookings());
+    }
+
+    @Test
+    public void benchmarkReactiveService() {
+        Date firstSlot = new Date();
+        AtomicInteger rejected = new AtomicInteger();
+
+        long start = System.nanoTime();
+        Flux.range(0, ORDERS)
+                .flatMap(i -> reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, getDeliveryTime(firstSlot, i))
+                        .onErrorResume(e -> {
+                            rejected.incrementAndGet();
+                            return Mono.empty();
+                        }), REACTIVE_CONCURRENCY)
+                .blockLast();
+        long elapsed = System.nanoTime() - start;
+
+        printResult("Reactive (concurrency " + REACTIVE_CONCURRENCY + ")", elapsed, rejected.get(), countDoubleBookings());
+    }
+
+    // Spread the orders over hourly slots so every slot can be served by the drivers of the city.
+    private Date getDeliveryTime(Date firstSlot, int order) {
+        return new Date(firstSlot.getTime() + (order / DRIVERS) * HOUR);
+    }
+
+    // Function that returns the number of deliveries whose driver already has another delivery in the same slot.
+    // Every order takes a whole hourly slot, so two deliveries of a driver at the same time are a double booking.
+    private int countDoubleBookings() {
+        Set<String> bookedSlots = new HashSet<>();
+        int doubleBookings = 0;
+        for (Delivery delivery : deliveryRepository.findAll()) {
+            if (!bookedSlots.add(delivery.getDriver().getId() + ":" + delivery.getDeliveryTime().getTime())) {
+                doubleBookings++;
+            }
+        }
+        return doubleBookings;
+    }
+
+    private void printResult(String name, long elapsedNanos, int rejected, int doubleBookings) {
+        double elapsedMillis = elapsedNanos / 1000000.0;
+        System.out.println(String.format("%s: %d orders in %.0f ms, %.1f orders/s, %d rejected, %d double bookings.",
+                name, ORDERS, elapsedMillis, ORDERS * 1000.0 / elapsedMillis, rejected, doubleBookings));
+    }
+}
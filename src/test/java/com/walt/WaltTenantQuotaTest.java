@@ -0,0 +1,143 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.OrderRequest;
+import com.walt.model.Restaurant;
+import com.walt.tenant.TenantContext;
+import com.walt.utils.Consts;
+
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.annotation.Resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+// Tenant quotas are configured only for the "limited" tenant of these tests, so the other tests run with the shipped defaults.
+@SpringBootTest(properties = {"walt.tenant.quotas.limited.orders-per-second=1", "walt.tenant.quotas.limited.burst=2"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class WaltTenantQuotaTest {
+
+    @Autowired
+    WaltService waltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    @BeforeEach()
+    public void prepareData(){
+
+        City jerusalem = cityRepository.save(new City("Jerusalem"));
+        driverRepository.saveAll(Lists.newArrayList(new Driver("Robert", jerusalem), new Driver("David", jerusalem), new Driver("Neta", jerusalem)));
+        customerRepository.save(new Customer("Mozart", jerusalem, "Wolfgang Amadeus Mozart"));
+        restaurantRepository.save(new Restaurant("meat", jerusalem, "All meat restaurant"));
+    }
+
+    @Test
+    public void testTenantOverQuotaIsRejectedWithoutAffectingOthers() {
+    	Date deliveryTime = new Date();
+    	TenantContext.setTenantId("limited");
+    	try {
+    		// The "limited" tenant may place 2 orders at once and then 1 order per second.
+    		City city = cityRepository.save(new City("Eilat"));
+    		driverRepository.save(new Driver("Yossi", city));
+    		driverRepository.save(new Driver("Dana", city));
+    		driverRepository.save(new Driver("Avi", city));
+    		Customer customer = customerRepository.save(new Customer("Shira", city, "Beach"));
+    		Restaurant restaurant = restaurantRepository.save(new Restaurant("fish", city, "Fish restaurant"));
+    		waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    		waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    		Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    			waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    		});
+    		assertEquals(Consts.TENANT_QUOTA_EXCEEDED_MESSAGE, throwable.getMessage());
+    		assertEquals(2, waltService.getDriverRankReport().size());
+    	} finally {
+    		TenantContext.clear();
+    	}
+    	
+    	// Expecting the default tenant, which has no quota, to keep getting its orders assigned.
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	for(int i = 0; i < 3; i++) {
+    		assertNotNull(waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).getDriver());
+    	}
+    }
+
+    @Test
+    public void testRunLargerThanTenantBurstIsRejectedWithoutTakingQuota() {
+    	Date deliveryTime = new Date();
+    	TenantContext.setTenantId("limited");
+    	try {
+    		// The "limited" tenant may place 2 orders at once, a run of 3 stops could never fit.
+    		City city = cityRepository.save(new City("Eilat"));
+    		driverRepository.save(new Driver("Yossi", city));
+    		Restaurant restaurant = restaurantRepository.save(new Restaurant("fish", city, "Fish restaurant"));
+    		List<Customer> customers = new ArrayList<>();
+    		for(String name : new String[] {"Shira", "Noam", "Tal"}) {
+    			customers.add(customerRepository.save(new Customer(name, city, "Beach")));
+    		}
+    		Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    			waltService.createRunAndAssignDriver(restaurant, customers, deliveryTime);
+    		});
+    		assertEquals(Consts.TENANT_QUOTA_TOO_MANY_ORDERS_MESSAGE, throwable.getMessage());
+
+    		// Expecting the rejected run to leave the quota of the tenant untouched.
+    		assertEquals(2, waltService.createRunAndAssignDriver(restaurant, customers.subList(0, 2), deliveryTime).size());
+    	} finally {
+    		TenantContext.clear();
+    	}
+    }
+
+    @Test
+    public void testSlotBatchOverTenantQuotaAssignsOnlyTheOrdersThatFit() {
+    	Date deliveryTime = new Date();
+    	TenantContext.setTenantId("limited");
+    	try {
+    		// The "limited" tenant may place 2 orders at once, a batch of 3 gets the first 2 assigned.
+    		City city = cityRepository.save(new City("Eilat"));
+    		driverRepository.save(new Driver("Yossi", city));
+    		driverRepository.save(new Driver("Dana", city));
+    		driverRepository.save(new Driver("Avi", city));
+    		Customer customer = customerRepository.save(new Customer("Shira", city, "Beach"));
+    		Restaurant restaurant = restaurantRepository.save(new Restaurant("fish", city, "Fish restaurant"));
+    		OrderRequest order = new OrderRequest(customer, restaurant, deliveryTime);
+    		List<Delivery> deliveries = waltService.createOrdersAndAssignDrivers(Lists.newArrayList(order, order, order));
+    		assertNotNull(deliveries.get(0));
+    		assertNotNull(deliveries.get(1));
+    		assertNull(deliveries.get(2));
+    		
+    		// Expecting a batch with no quota left at all to be rejected.
+    		Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    			waltService.createOrdersAndAssignDrivers(Lists.newArrayList(order));
+    		});
+    		assertEquals(Consts.TENANT_QUOTA_EXCEEDED_MESSAGE, throwable.getMessage());
+    	} finally {
+    		TenantContext.clear();
+    	}
+    }
+}
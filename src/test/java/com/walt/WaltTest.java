@@ -1,15 +1,31 @@
 package com.walt;
 
+import com.walt.batching.OrderBatcher;
 import com.walt.dao.*;
+import com.walt.idempotency.IdempotencyStore;
 import com.walt.model.City;
 import com.walt.model.Customer;
 import com.walt.model.Delivery;
+import com.walt.model.DeliverySummary;
 import com.walt.model.Driver;
 import com.walt.model.DriverDistance;
+import com.walt.model.DriverShift;
+import com.walt.model.Location;
+import com.walt.model.OrderRequest;
 import com.walt.model.Restaurant;
+import com.walt.report.DriverDistanceRollupUpdater;
+import com.walt.schedule.CityDispatchLocks;
+import com.walt.schedule.DispatchLock;
+import com.walt.schedule.DispatchSnapshot;
+import com.walt.schedule.DriverScheduleRegistry;
+import com.walt.tenant.TenantContext;
 import com.walt.utils.Consts;
+import com.walt.utils.HungarianAlgorithm;
+import com.walt.utils.IntervalTree;
 
 import org.assertj.core.util.Lists;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,17 +33,33 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
 
 import javax.annotation.Resource;
+import javax.persistence.EntityManagerFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @SpringBootTest()
@@ -46,6 +78,21 @@ public class WaltTest {
     @Autowired
     WaltService waltService;
 
+    @Autowired
+    ReactiveWaltService reactiveWaltService;
+
+    @Autowired
+    OrderBatcher orderBatcher;
+
+    @Autowired
+    DispatchSnapshot dispatchSnapshot;
+
+    @Autowired
+    DriverScheduleRegistry driverScheduleRegistry;
+
+    @Autowired
+    CityDispatchLocks cityDispatchLocks;
+
     @Resource
     CityRepository cityRepository;
 
@@ -61,6 +108,27 @@ public class WaltTest {
     @Resource
     RestaurantRepository restaurantRepository;
 
+    @Resource
+    DriverShiftRepository driverShiftRepository;
+
+    @Resource
+    IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    DriverDistanceRollupUpdater driverDistanceRollupUpdater;
+
+    @Autowired
+    DeliveryCityBackfill deliveryCityBackfill;
+
+    @Autowired
+    IdempotencyStore idempotencyStore;
+
     @BeforeEach()
     public void prepareData(){
 
@@ -339,6 +407,966 @@ public class WaltTest {
     	}
     }
     
+    @Test
+    public void testCreateOrderWithLongDeliveryBlocksOverlappingOrders() {
+    	// Create 3 deliveries of 3 hours with all the drivers of Jerusalem.
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Date deliveryTime = new Date();
+    	Date deliveryEndTime = new Date(deliveryTime.getTime() + 3 * 3600000);
+    	for(int i = 0; i < 3; i++) {
+    		waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryEndTime);
+    	}
+    	
+    	// Create new delivery that starts 2 hours later, while all the drivers are still busy.
+    	// Expecting to get exception with proper message.
+    	Date overlappingDeliveryTime = new Date(deliveryTime.getTime() + 2 * 3600000);
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, overlappingDeliveryTime);
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    	
+    	// Create new delivery that starts exactly when the other deliveries end.
+    	// Expecting to get delivery object that saved to the database.
+    	Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryEndTime);
+    	assertNotNull(delivery);
+    }
+    
+    @Test
+    public void testCreateOrderWithInvalidDeliveryInterval() {
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Date deliveryTime = new Date();
+    	// Expecting to get exception with proper message.
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime, deliveryTime);
+    	});
+    	assertEquals(Consts.INVALID_DELIVERY_INTERVAL_MESSAGE, throwable.getMessage());
+    }
+    
+    @Test
+    public void testCreateOrderAssignOnlyDriverOnShift() {
+    	// Give all the drivers of Jerusalem a morning and an evening shift, except Neta that works only in the morning.
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Date morning = new Date();
+    	Date evening = new Date(morning.getTime() + 8 * 3600000);
+    	
+    	Driver driver1 = driverRepository.findByName("Robert");
+    	Driver driver2 = driverRepository.findByName("David");
+    	Driver driver3 = driverRepository.findByName("Neta");
+    	driverShiftRepository.saveAll(Lists.newArrayList(
+    			new DriverShift(driver1, morning, new Date(morning.getTime() + 4 * 3600000)),
+    			new DriverShift(driver1, evening, new Date(evening.getTime() + 4 * 3600000)),
+    			new DriverShift(driver2, morning, new Date(morning.getTime() + 4 * 3600000)),
+    			new DriverShift(driver2, evening, new Date(evening.getTime() + 4 * 3600000)),
+    			new DriverShift(driver3, morning, new Date(morning.getTime() + 4 * 3600000))));
+    	
+    	// Book Robert in the evening, so only David is on shift and available.
+    	deliveryRepository.save(new Delivery(driver1, restaurant, customer, evening));
+    	Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, evening);
+    	assertEquals(driver2.getId(), delivery.getDriver().getId());
+    	
+    	// Nobody is on shift between the two shifts.
+    	// Expecting to get exception with proper message.
+    	Date noon = new Date(morning.getTime() + 5 * 3600000);
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(customer, restaurant, noon);
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    }
+    
+    @Test
+    public void testGetDeliveriesByCity() {
+    	// Create 6 deliveries with 3 drivers and 3 delivery times and save them to the database.
+    	setDeliveriesForRankReportTest();
+    	
+    	City city = cityRepository.findByName("Tel-Aviv");
+    	Date from = new Date(System.currentTimeMillis() - 3600000);
+    	Date to = new Date(from.getTime() + 2 * 3600000 + 1800000);
+    	
+    	// Expecting to get only the 4 deliveries of Tel-Aviv in the first 2 delivery times, ordered by delivery time.
+    	List<DeliverySummary> deliveries = waltService.getDeliveriesByCity(city, from, to);
+    	assertEquals(4, deliveries.size());
+    	for(int i = 0; i < deliveries.size(); i++) {
+    		assertEquals(city.getId(), deliveries.get(i).getCityId());
+    		if(i > 0) {
+    			assertTrue(!deliveries.get(i).getDeliveryTime().before(deliveries.get(i - 1).getDeliveryTime()));
+    		}
+    	}
+    }
+    
+    @Test
+    public void testDeliveriesWithoutCityAreBackfilledWithTheCityOfTheirRestaurant() {
+    	setDeliveriesForRankReportTest();
+    	City city = cityRepository.findByName("Tel-Aviv");
+    	Date from = new Date(System.currentTimeMillis() - 3600000);
+    	Date to = new Date(from.getTime() + 4 * 3600000);
+    	
+    	// Drop the cities, as if the deliveries were saved by a version without them.
+    	jdbcTemplate.update("UPDATE delivery SET city_id = NULL");
+    	assertEquals(0, waltService.getDeliveriesByCity(city, from, to).size());
+    	assertEquals(6, deliveryCityBackfill.backfillCities());
+    	assertEquals(0, deliveryCityBackfill.backfillCities());
+    	
+    	// Expecting the 5 deliveries of the restaurants of Tel-Aviv to be found again.
+    	List<DeliverySummary> deliveries = waltService.getDeliveriesByCity(city, from, to);
+    	assertEquals(5, deliveries.size());
+    	for(DeliverySummary delivery : deliveries) {
+    		assertEquals(city.getId(), delivery.getCityId());
+    	}
+    }
+    
+    @Test
+    public void testGetDriverSchedule() {
+    	// Create 6 deliveries with 3 drivers and 3 delivery times and save them to the database.
+    	setDeliveriesForRankReportTest();
+    	
+    	Driver driver = driverRepository.findByName("Mary");
+    	Date from = new Date(System.currentTimeMillis() - 3600000);
+    	Date to = new Date(from.getTime() + 24 * 3600000);
+    	
+    	// Expecting to get all the 3 deliveries of Mary.
+    	List<DeliverySummary> schedule = waltService.getDriverSchedule(driver, from, to);
+    	assertEquals(3, schedule.size());
+    	for(DeliverySummary delivery : schedule) {
+    		assertEquals(driver.getId(), delivery.getDriverId());
+    	}
+    }
+    
+    @Test
+    public void testReactiveCreateOneOrderAndAssignDriver() {
+    	// Valid customer, restaurant and delivery time.
+    	Customer customer = customerRepository.findByName("Beethoven");
+    	Restaurant restaurant = restaurantRepository.findByName("vegan");
+    	Date deliveryTime = new Date();
+    	// Expecting to get delivery object that saved to the database.
+    	Delivery delivery = reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block();
+    	assertNotNull(delivery);
+    	assertNotNull(delivery.getId());
+    	assertEquals(customer.getCity().getName(), delivery.getDriver().getCity().getName());
+    	assertEquals(1, deliveryRepository.findAllDeliveriesByDriver(delivery.getDriver()).size());
+    }
+    
+    @Test
+    public void testReactiveCreateOneOrderAndAssignDriverCustomerNotFound() {
+    	// Invalid customer, valid restaurant and delivery time.
+    	Customer customer = new Customer("Alon", new City("tlv"), "address");
+    	Restaurant restaurant = restaurantRepository.findByName("vegan");
+    	Date deliveryTime = new Date();
+    	// Expecting to get exception with proper message.
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block();
+    	});
+    	assertEquals(Consts.CUSTOMER_NOT_FOUND_MESSAGE, throwable.getMessage());
+    }
+    
+    @Test
+    public void testReactiveCreateOrdersUntilNoDriverAvailable() {
+    	// Book all the 3 drivers of Jerusalem, one through the blocking service and two through the reactive service.
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Date deliveryTime = new Date();
+    	waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	Delivery delivery1 = reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block();
+    	Delivery delivery2 = reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block();
+    	assertTrue(!delivery1.getDriver().getId().equals(delivery2.getDriver().getId()));
+    	
+    	// Expecting both services to find no available driver.
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block();
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    	throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    }
+    
+    @Test
+    public void testReactiveGetDriverRankReportByCity() {
+    	// Create 6 deliveries with 3 drivers and 3 delivery times and save them to the database.
+    	setDeliveriesForRankReportTest();
+    	
+    	City city = cityRepository.findByName("Tel-Aviv");
+    	
+    	// Expecting the same report as the blocking service.
+    	List<DriverDistance> rankReport = waltService.getDriverRankReportByCity(city);
+    	List<DriverDistance> reactiveRankReport = reactiveWaltService.getDriverRankReportByCity(city).collectList().block();
+    	assertEquals(rankReport.size(), reactiveRankReport.size());
+    	for(int i = 0; i < rankReport.size(); i++) {
+    		assertEquals(rankReport.get(i).getDriver().getId(), reactiveRankReport.get(i).getDriver().getId());
+    		assertEquals(rankReport.get(i).getTotalDistance(), reactiveRankReport.get(i).getTotalDistance());
+    		assertEquals("Tel-Aviv", reactiveRankReport.get(i).getDriver().getCity().getName());
+    	}
+    }
+    
+    @Test
+    public void testRankReportServedFromCacheAndInvalidatedByNewDelivery() {
+    	// Create 6 deliveries with 3 drivers and 3 delivery times and save them to the database.
+    	setDeliveriesForRankReportTest();
+    	Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    	statistics.clear();
+    	
+    	// Expecting the second report to come from the query cache.
+    	List<DriverDistance> rankReport = waltService.getDriverRankReport();
+    	waltService.getDriverRankReport();
+    	assertEquals(1, statistics.getQueryCacheHitCount());
+    	
+    	// Expecting a new delivery to invalidate the cached report.
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, new Date(System.currentTimeMillis() + 10 * 3600000));
+    	List<DriverDistance> newRankReport = waltService.getDriverRankReport();
+    	assertEquals(1, statistics.getQueryCacheHitCount());
+    	assertEquals(getTotalDistance(rankReport) + (long) delivery.getDistance(), getTotalDistance(newRankReport), 1);
+    }
+    
+    private long getTotalDistance(List<DriverDistance> rankReport) {
+    	long totalDistance = 0;
+    	for(DriverDistance driverDistance : rankReport) {
+    		totalDistance += driverDistance.getTotalDistance();
+    	}
+    	return totalDistance;
+    }
+    
+    @Test
+    public void testBatchedOrdersOfNearbyCustomersShareOneRun() throws Exception {
+    	// Place the restaurant and 2 customers close to each other in Tel-Aviv, and a third customer far from them.
+    	Restaurant restaurant = restaurantRepository.findByName("vegan");
+    	restaurant.setLocation(new Location(32.0853, 34.7818));
+    	restaurantRepository.save(restaurant);
+    	Customer customer1 = customerRepository.findByName("Beethoven");
+    	customer1.setLocation(new Location(32.0900, 34.7800));
+    	Customer customer2 = customerRepository.findByName("Bach");
+    	customer2.setLocation(new Location(32.0950, 34.7850));
+    	Customer customer3 = customerRepository.findByName("Rachmaninoff");
+    	customer3.setLocation(new Location(32.1800, 34.8700));
+    	customerRepository.saveAll(Lists.newArrayList(customer1, customer2, customer3));
+    	Date deliveryTime = new Date();
+    	
+    	// Submit the 3 orders in the same window.
+    	CompletableFuture<Delivery> order2 = orderBatcher.submitOrder(customer2, restaurant, deliveryTime);
+    	CompletableFuture<Delivery> order1 = orderBatcher.submitOrder(customer1, restaurant, deliveryTime);
+    	CompletableFuture<Delivery> order3 = orderBatcher.submitOrder(customer3, restaurant, deliveryTime);
+    	Delivery delivery1 = order1.get(10, TimeUnit.SECONDS);
+    	Delivery delivery2 = order2.get(10, TimeUnit.SECONDS);
+    	Delivery delivery3 = order3.get(10, TimeUnit.SECONDS);
+    	
+    	// Expecting the 2 close customers to get one driver in one run, ordered from the nearest to the restaurant.
+    	assertEquals(delivery1.getRunId(), delivery2.getRunId());
+    	assertEquals(delivery1.getDriver().getId(), delivery2.getDriver().getId());
+    	assertEquals(1, delivery1.getStopNumber());
+    	assertEquals(2, delivery2.getStopNumber());
+    	assertEquals(restaurant.getLocation().distanceTo(customer1.getLocation()), delivery1.getDistance(), 0.0001);
+    	assertEquals(customer1.getLocation().distanceTo(customer2.getLocation()), delivery2.getDistance(), 0.0001);
+    	
+    	// Expecting the far customer to get a run of its own, with another driver.
+    	assertTrue(!delivery3.getRunId().equals(delivery1.getRunId()));
+    	assertTrue(!delivery3.getDriver().getId().equals(delivery1.getDriver().getId()));
+    }
+    
+    @Test
+    public void testBatchedOrderOfMissingCustomerDoesNotFailTheRun() throws Exception {
+    	Restaurant restaurant = restaurantRepository.findByName("vegan");
+    	Customer customer = customerRepository.findByName("Beethoven");
+    	Customer missingCustomer = new Customer("Alon", customer.getCity(), "address");
+    	Date deliveryTime = new Date();
+    	
+    	CompletableFuture<Delivery> missingCustomerDelivery = orderBatcher.submitOrder(missingCustomer, restaurant, deliveryTime);
+    	CompletableFuture<Delivery> delivery = orderBatcher.submitOrder(customer, restaurant, deliveryTime);
+    	
+    	// Expecting only the order of the missing customer to fail, with proper message.
+    	assertNotNull(delivery.get(10, TimeUnit.SECONDS));
+    	Throwable throwable = Assertions.assertThrows(ExecutionException.class, () -> {
+    		missingCustomerDelivery.get(10, TimeUnit.SECONDS);
+    	});
+    	assertEquals(Consts.CUSTOMER_NOT_FOUND_MESSAGE, throwable.getCause().getMessage());
+    }
+    
+    @Test
+    public void testBatchWaitingForItsCityDoesNotHoldBackBatchesOfOtherCities() throws Exception {
+    	Restaurant tlvRestaurant = restaurantRepository.findByName("vegan");
+    	Restaurant jerusalemRestaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	DispatchLock tlvLock = cityDispatchLocks.getLock(tlvRestaurant.getCity());
+    	
+    	// The batch of Tel-Aviv closes first and waits for the lock of its city.
+    	tlvLock.lock();
+    	CompletableFuture<Delivery> tlvOrder;
+    	try {
+    		tlvOrder = orderBatcher.submitOrder(customerRepository.findByName("Beethoven"), tlvRestaurant, deliveryTime);
+    		CompletableFuture<Delivery> jerusalemOrder = orderBatcher.submitOrder(customerRepository.findByName("Mozart"), jerusalemRestaurant, deliveryTime);
+    		
+    		// Expecting the batch of Jerusalem to be sent meanwhile.
+    		assertNotNull(jerusalemOrder.get(10, TimeUnit.SECONDS).getDriver());
+    		assertTrue(!tlvOrder.isDone());
+    	} finally {
+    		tlvLock.unlock();
+    	}
+    	assertNotNull(tlvOrder.get(10, TimeUnit.SECONDS).getDriver());
+    }
+    
+    @Test
+    public void testBatchedOrdersOfSameCustomerEachGetTheirDelivery() throws Exception {
+    	Restaurant restaurant = restaurantRepository.findByName("vegan");
+    	restaurant.setLocation(new Location(32.0853, 34.7818));
+    	restaurantRepository.save(restaurant);
+    	Customer customer = customerRepository.findByName("Beethoven");
+    	customer.setLocation(new Location(32.0900, 34.7800));
+    	customerRepository.save(customer);
+    	Customer reloadedCustomer = customerRepository.findById(customer.getId()).get();
+    	Date deliveryTime = new Date();
+    	
+    	// The same customer orders twice in the window, once with an entity loaded again.
+    	CompletableFuture<Delivery> order1 = orderBatcher.submitOrder(customer, restaurant, deliveryTime);
+    	CompletableFuture<Delivery> order2 = orderBatcher.submitOrder(reloadedCustomer, restaurant, deliveryTime);
+    	Delivery delivery1 = order1.get(10, TimeUnit.SECONDS);
+    	Delivery delivery2 = order2.get(10, TimeUnit.SECONDS);
+    	
+    	// Expecting each order to get a different stop of the same run.
+    	assertEquals(delivery1.getRunId(), delivery2.getRunId());
+    	assertTrue(!delivery1.getId().equals(delivery2.getId()));
+    }
+    
+    @Test
+    public void testGetDriverRankReportForTimeWindows() {
+    	// Create deliveries over 8 days, starting 5 days before tomorrow.
+    	Driver driver1 = driverRepository.findByName("Mary"); //tlv
+    	Driver driver2 = driverRepository.findByName("Patricia"); //tlv
+    	Driver driver3 = driverRepository.findByName("Neta"); //jeru
+    	Restaurant restaurant1 = restaurantRepository.findByName("cafe"); //tlv
+    	Restaurant restaurant2 = restaurantRepository.findByName("meat"); //jeru
+    	Customer customer1 = customerRepository.findByName("Beethoven"); //tlv
+    	Customer customer2 = customerRepository.findByName("Mozart"); //jeru
+    	
+    	Calendar calendar = Calendar.getInstance();
+    	calendar.add(Calendar.DAY_OF_MONTH, 1);
+    	calendar.set(Calendar.HOUR_OF_DAY, 0);
+    	calendar.set(Calendar.MINUTE, 0);
+    	calendar.set(Calendar.SECOND, 0);
+    	calendar.set(Calendar.MILLISECOND, 0);
+    	long tomorrow = calendar.getTimeInMillis();
+    	List<Delivery> deliveries = new ArrayList<>();
+    	for(int hour = -5 * 24; hour < 3 * 24; hour += 7) {
+    		Date deliveryTime = new Date(tomorrow + hour * 3600000L);
+    		deliveries.add(new Delivery(driver1, restaurant1, customer1, deliveryTime));
+    		if(hour % 2 == 0) {
+    			deliveries.add(new Delivery(driver2, restaurant1, customer1, deliveryTime));
+    		}
+    		if(hour % 3 == 0) {
+    			deliveries.add(new Delivery(driver3, restaurant2, customer2, deliveryTime));
+    		}
+    	}
+    	deliveryRepository.saveAll(deliveries);
+    	
+    	// Expecting every window - shorter than a day, one day and days with hours on both sides - to match the raw deliveries.
+    	City tlv = cityRepository.findByName("Tel-Aviv");
+    	long[][] windows = {{tomorrow + 3 * 3600000L, tomorrow + 20 * 3600000L}, {tomorrow, tomorrow + 24 * 3600000L},
+    			{tomorrow - 50 * 3600000L, tomorrow + 30 * 3600000L}, {tomorrow - 30 * 24 * 3600000L, tomorrow + 3 * 24 * 3600000L}};
+    	for(long[] window : windows) {
+    		Date from = new Date(window[0]);
+    		Date to = new Date(window[1]);
+    		assertRankReportMatchesDeliveries(waltService.getDriverRankReport(from, to), deliveries, null, from, to);
+    		assertRankReportMatchesDeliveries(waltService.getDriverRankReportByCity(tlv, from, to), deliveries, tlv, from, to);
+    	}
+    }
+    
+    @Test
+    public void testRollupsAreBackfilledFromDeliveriesSavedBeforeThem() {
+    	Driver driver1 = driverRepository.findByName("Mary"); //tlv
+    	Driver driver2 = driverRepository.findByName("Neta"); //jeru
+    	Restaurant restaurant1 = restaurantRepository.findByName("cafe"); //tlv
+    	Restaurant restaurant2 = restaurantRepository.findByName("meat"); //jeru
+    	Customer customer1 = customerRepository.findByName("Beethoven"); //tlv
+    	Customer customer2 = customerRepository.findByName("Mozart"); //jeru
+    	long now = new Date().getTime();
+    	List<Delivery> deliveries = new ArrayList<>();
+    	for(int hour = -3 * 24; hour < 2 * 24; hour += 5) {
+    		Date deliveryTime = new Date(now + hour * 3600000L);
+    		deliveries.add(new Delivery(driver1, restaurant1, customer1, deliveryTime));
+    		deliveries.add(new Delivery(driver2, restaurant2, customer2, new Date(deliveryTime.getTime() + 1800000)));
+    	}
+    	deliveryRepository.saveAll(deliveries);
+    	
+    	// Drop the rollups, as if the deliveries were saved by a version without them.
+    	jdbcTemplate.update("DELETE FROM driver_distance_rollup");
+    	assertTrue(driverDistanceRollupUpdater.backfillRollups());
+    	assertTrue(!driverDistanceRollupUpdater.backfillRollups());
+    	
+    	// Expecting the windowed reports of the backfilled rollups to match the raw deliveries.
+    	Date from = new Date(now - 50 * 3600000L);
+    	Date to = new Date(now + 30 * 3600000L);
+    	assertRankReportMatchesDeliveries(waltService.getDriverRankReport(from, to), deliveries, null, from, to);
+    	City tlv = cityRepository.findByName("Tel-Aviv");
+    	assertRankReportMatchesDeliveries(waltService.getDriverRankReportByCity(tlv, from, to), deliveries, tlv, from, to);
+    }
+    
+    private void assertRankReportMatchesDeliveries(List<DriverDistance> rankReport, List<Delivery> deliveries, City city, Date from, Date to) {
+    	HashMap<Long, Double> expectedDistances = new HashMap<>();
+    	for(Delivery delivery : deliveries) {
+    		if(!delivery.getDeliveryTime().before(from) && delivery.getDeliveryTime().before(to)
+    				&& (city == null || delivery.getDriver().getCity().getId().equals(city.getId()))) {
+    			expectedDistances.merge(delivery.getDriver().getId(), delivery.getDistance(), Double::sum);
+    		}
+    	}
+    	assertEquals(expectedDistances.size(), rankReport.size());
+    	for(int i = 0; i < rankReport.size(); i++) {
+    		DriverDistance driverDistance = rankReport.get(i);
+    		assertEquals(expectedDistances.get(driverDistance.getDriver().getId()), driverDistance.getTotalDistance(), 1);
+    		if(i > 0) {
+    			assertTrue(rankReport.get(i - 1).getTotalDistance() >= driverDistance.getTotalDistance());
+    		}
+    	}
+    }
+    
+    @Test
+    public void testRetriedOrderWithSameIdempotencyKeyReturnsOriginalDelivery() {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	
+    	// Expecting the retries to return the first delivery without booking another driver.
+    	Delivery delivery = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	Delivery retry1 = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	Delivery retry2 = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	assertEquals(delivery.getId(), retry1.getId());
+    	assertEquals(delivery.getId(), retry2.getId());
+    	assertEquals(delivery.getDriver().getId(), retry1.getDriver().getId());
+    	assertEquals(1, ((List<Delivery>) deliveryRepository.findAll()).size());
+    	
+    	// Expecting a new key to create a new delivery with another driver.
+    	Delivery otherDelivery = waltService.createOrderAndAssignDriver("order-2", customer, restaurant, deliveryTime);
+    	assertTrue(!otherDelivery.getId().equals(delivery.getId()));
+    	assertTrue(!otherDelivery.getDriver().getId().equals(delivery.getDriver().getId()));
+    }
+    
+    @Test
+    public void testPersistentIdempotencyKeysSurviveRestartUntilTheyExpire() throws Exception {
+    	ReflectionTestUtils.setField(idempotencyStore, "persistent", true);
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	Delivery delivery = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	
+    	// A restarted node has no keys in memory, expecting the retry to find the key in the database.
+    	((Map<?, ?>) ReflectionTestUtils.getField(idempotencyStore, "records")).clear();
+    	Delivery retry = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	assertEquals(delivery.getId(), retry.getId());
+    	assertEquals(1, idempotencyRecordRepository.count());
+    	
+    	// Expecting an expired key to be purged from memory and from the database, and to make a new order when reused.
+    	ReflectionTestUtils.setField(idempotencyStore, "ttlInMinutes", 0);
+    	Thread.sleep(10);
+    	idempotencyStore.purgeExpiredKeys();
+    	assertEquals(0, ((Map<?, ?>) ReflectionTestUtils.getField(idempotencyStore, "records")).size());
+    	assertEquals(0, idempotencyRecordRepository.count());
+    	Delivery newDelivery = waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+    	assertTrue(!newDelivery.getId().equals(delivery.getId()));
+    }
+
+    @Test
+    public void testIdempotencyKeyReusedForAnotherOrderIsRejected() {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	waltService.createOrderAndAssignDriver("order-1", customer, restaurant, deliveryTime);
+
+    	// Expecting the key to be rejected for another customer and restaurant, and for another delivery time.
+    	Throwable otherOrder = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver("order-1", customerRepository.findByName("Beethoven"), restaurantRepository.findByName("cafe"), deliveryTime);
+    	});
+    	assertEquals(Consts.IDEMPOTENCY_KEY_REUSED_MESSAGE, otherOrder.getMessage());
+    	Throwable otherTime = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver("order-1", customer, restaurant, new Date(deliveryTime.getTime() + TimeUnit.HOURS.toMillis(2)));
+    	});
+    	assertEquals(Consts.IDEMPOTENCY_KEY_REUSED_MESSAGE, otherTime.getMessage());
+    	assertEquals(1, deliveryRepository.count());
+    }
+
+    @Test
+    public void testDeliveryIsRolledBackWhenItsIdempotencyKeyIsNotSaved() {
+    	ReflectionTestUtils.setField(idempotencyStore, "persistent", true);
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+
+    	// A key longer than its column fails the insert of the record, expecting the delivery to be rolled back with it.
+    	StringBuilder longKey = new StringBuilder();
+    	while(longKey.length() < 300) {
+    		longKey.append("order-1");
+    	}
+    	Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(longKey.toString(), customer, restaurant, deliveryTime);
+    	});
+    	assertEquals(0, deliveryRepository.count());
+    	assertEquals(0, idempotencyRecordRepository.count());
+    	assertEquals(0, ((Map<?, ?>) ReflectionTestUtils.getField(idempotencyStore, "records")).size());
+
+    	// Expecting all the drivers of Jerusalem to stay free for the next orders.
+    	for(int i = 0; i < driverRepository.findAllDriversByCity(restaurant.getCity()).size(); i++) {
+    		waltService.createOrderAndAssignDriver("order-" + i, customer, restaurant, deliveryTime);
+    	}
+    	assertEquals(idempotencyRecordRepository.count(), deliveryRepository.count());
+    }
+    
+    @Test
+    public void testCancelDeliveryFreesTheDriver() {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	Date from = new Date(deliveryTime.getTime() - 3600000);
+    	Date to = new Date(deliveryTime.getTime() + 3600000);
+    	
+    	// Booking all the 3 drivers of Jerusalem.
+    	Delivery delivery1 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    	
+    	// Expecting the cancelled delivery to be gone from the schedule and the reports, and its driver to be free again.
+    	waltService.cancelDelivery(delivery1.getId());
+    	assertEquals(2, ((List<Delivery>) deliveryRepository.findAll()).size());
+    	assertEquals(0, waltService.getDriverSchedule(delivery1.getDriver(), from, to).size());
+    	assertRankReportMatchesDeliveries(waltService.getDriverRankReport(from, to), (List<Delivery>) deliveryRepository.findAll(), null, from, to);
+    	Delivery delivery4 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	assertEquals(delivery1.getDriver().getId(), delivery4.getDriver().getId());
+    	
+    	throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.cancelDelivery(delivery1.getId());
+    	});
+    	assertEquals(Consts.DELIVERY_NOT_FOUND_MESSAGE, throwable.getMessage());
+    }
+    
+    @Test
+    public void testReassignDeliveryMovesItToAnotherDriver() {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	Date from = new Date(deliveryTime.getTime() - 3600000);
+    	Date to = new Date(deliveryTime.getTime() + 3600000);
+    	
+    	Delivery delivery1 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	Delivery delivery2 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	Driver oldDriver = delivery1.getDriver();
+    	
+    	// Expecting the delivery to move to the only free driver, with the schedules and the reports following it.
+    	Delivery reassigned = waltService.reassignDelivery(delivery1.getId());
+    	assertEquals(delivery1.getId(), reassigned.getId());
+    	assertTrue(!reassigned.getDriver().getId().equals(oldDriver.getId()));
+    	assertTrue(!reassigned.getDriver().getId().equals(delivery2.getDriver().getId()));
+    	assertEquals(0, waltService.getDriverSchedule(oldDriver, from, to).size());
+    	assertEquals(1, waltService.getDriverSchedule(reassigned.getDriver(), from, to).size());
+    	assertRankReportMatchesDeliveries(waltService.getDriverRankReport(from, to), (List<Delivery>) deliveryRepository.findAll(), null, from, to);
+    	
+    	// Expecting the old driver to get the next order, and no reassignment when all the drivers are busy.
+    	Delivery delivery3 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	assertEquals(oldDriver.getId(), delivery3.getDriver().getId());
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.reassignDelivery(delivery2.getId());
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    	assertEquals(delivery2.getDriver().getId(), deliveryRepository.findById(delivery2.getId()).get().getDriver().getId());
+    }
+    
+    @Test
+    public void testConcurrentOrdersInSameCityDoNotDoubleBookDrivers() throws Exception {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	
+    	// 8 orders for the 3 drivers of Jerusalem at the same time, expecting exactly 3 of them to get a driver.
+    	List<CompletableFuture<Delivery>> orders = new ArrayList<>();
+    	for(int i = 0; i < 8; i++) {
+    		orders.add(CompletableFuture.supplyAsync(() -> waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime)));
+    	}
+    	HashSet<Long> drivers = new HashSet<>();
+    	int failedOrders = 0;
+    	for(CompletableFuture<Delivery> order : orders) {
+    		try {
+    			assertTrue(drivers.add(order.get(30, TimeUnit.SECONDS).getDriver().getId()));
+    		} catch (ExecutionException e) {
+    			assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, e.getCause().getMessage());
+    			failedOrders++;
+    		}
+    	}
+    	assertEquals(3, drivers.size());
+    	assertEquals(5, failedOrders);
+    	assertEquals(3, ((List<Delivery>) deliveryRepository.findAll()).size());
+    }
+
+    @Test
+    public void testConcurrentReactiveAndBlockingOrdersDoNotDoubleBookDrivers() throws Exception {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+
+    	// Robert has a delivery saved before deliveries had a city and an end time, it still takes him the default hour.
+    	Driver robert = driverRepository.findByName("Robert");
+    	Delivery legacyDelivery = new Delivery(robert, restaurant, customer, new Date(deliveryTime.getTime() - 1800000));
+    	legacyDelivery.setCity(null);
+    	legacyDelivery.setDeliveryEndTime(null);
+    	deliveryRepository.save(legacyDelivery);
+
+    	// 8 orders at the same time through both services, expecting exactly the other 2 drivers of Jerusalem to get one each.
+    	List<CompletableFuture<Delivery>> orders = new ArrayList<>();
+    	for(int i = 0; i < 8; i++) {
+    		boolean reactive = i % 2 == 0;
+    		orders.add(CompletableFuture.supplyAsync(() -> reactive
+    				? reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block()
+    				: waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime)));
+    	}
+    	HashSet<Long> drivers = new HashSet<>();
+    	int failedOrders = 0;
+    	for(CompletableFuture<Delivery> order : orders) {
+    		try {
+    			assertTrue(drivers.add(order.get(30, TimeUnit.SECONDS).getDriver().getId()));
+    		} catch (ExecutionException e) {
+    			assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, e.getCause().getMessage());
+    			failedOrders++;
+    		}
+    	}
+    	assertEquals(2, drivers.size());
+    	assertTrue(!drivers.contains(robert.getId()));
+    	assertEquals(6, failedOrders);
+    }
+
+    @Test
+    public void testReactiveOrderCancelledWhileWaitingForCityLockDoesNotKeepIt() throws Exception {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	DispatchLock cityLock = cityDispatchLocks.getLock(restaurant.getCity());
+    	
+    	// The order waits for the lock without a thread, and is cancelled like on a client timeout.
+    	cityLock.lock();
+    	Disposable order = reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).subscribe(delivery -> {}, error -> {});
+    	waitForLockQueueLength(cityLock, 1);
+    	order.dispose();
+    	assertEquals(0, cityLock.getQueueLength());
+    	cityLock.unlock();
+    	
+    	// Orders cancelled at the moment the lock is handed to them, each in its own hour so none of them runs out of drivers.
+    	for(int i = 1; i <= 50; i++) {
+    		Date racingDeliveryTime = new Date(deliveryTime.getTime() + i * 2 * 3600000L);
+    		cityLock.lock();
+    		Disposable racingOrder = reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, racingDeliveryTime).subscribe(delivery -> {}, error -> {});
+    		waitForLockQueueLength(cityLock, 1);
+    		CompletableFuture<Void> unlock = CompletableFuture.runAsync(cityLock::unlock);
+    		racingOrder.dispose();
+    		unlock.get(10, TimeUnit.SECONDS);
+    		
+    		// Expecting the lock to be free again, for the blocking service too.
+    		CompletableFuture.runAsync(cityLock::lock).get(10, TimeUnit.SECONDS);
+    		cityLock.unlock();
+    	}
+    	
+    	// Expecting the city to keep taking the orders of both services.
+    	assertNotNull(waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).getDriver());
+    	assertNotNull(reactiveWaltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime).block(Duration.ofSeconds(10)).getDriver());
+    }
+    
+    private void waitForLockQueueLength(DispatchLock lock, int queueLength) throws InterruptedException {
+    	for(int i = 0; i < 1000 && lock.getQueueLength() != queueLength; i++) {
+    		Thread.sleep(10);
+    	}
+    	assertEquals(queueLength, lock.getQueueLength());
+    }
+    
+    @Test
+    public void testRestoreDispatchSnapshotReplaysLaterDeliveries() throws Exception {
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	Path snapshot = Files.createTempFile("dispatch", ".snapshot");
+    	
+    	Delivery delivery1 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	Delivery delivery2 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	
+    	// A driver with no deliveries in the database and a schedule larger than the write buffer, expecting it to be written
+    	// and read back in full, and then left out as its schedule doesn't match the database.
+    	IntervalTree<Long> largeSchedule = new IntervalTree<>();
+    	for(long slot = 0; slot < 5000; slot++) {
+    		largeSchedule.insert(slot * 10, slot * 10 + 5, -slot);
+    	}
+    	HashMap<Long, IntervalTree<Long>> largeSchedules = new HashMap<>();
+    	largeSchedules.put(-1L, largeSchedule);
+    	driverScheduleRegistry.restoreSchedules(largeSchedules);
+    	dispatchSnapshot.writeSnapshot(snapshot);
+    	
+    	// Changes after the snapshot - a reassigned delivery and a new one, expecting all 3 drivers of Jerusalem to be restored.
+    	Delivery reassigned = waltService.reassignDelivery(delivery1.getId());
+    	Delivery delivery3 = waltService.createOrderAndAssignDriver(customer, restaurant, new Date(deliveryTime.getTime() + 2 * 3600000));
+    	driverScheduleRegistry.clear();
+    	assertEquals(3, dispatchSnapshot.restoreSnapshot(snapshot));
+    	for(Driver driver : driverRepository.findAllDriversByCity(restaurant.getCity())) {
+    		assertEquals(deliveryRepository.findAllDeliveriesByDriver(driver).size(), driverScheduleRegistry.getDeliveriesCount(driver));
+    	}
+    	Delivery delivery4 = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+    	assertEquals(delivery1.getDriver().getId(), delivery4.getDriver().getId());
+    	
+    	// A delivery cancelled after the snapshot can't be replayed, expecting its driver to be loaded from the database instead.
+    	dispatchSnapshot.writeSnapshot(snapshot);
+    	waltService.cancelDelivery(delivery2.getId());
+    	driverScheduleRegistry.clear();
+    	assertEquals(2, dispatchSnapshot.restoreSnapshot(snapshot));
+    	assertEquals(0, driverScheduleRegistry.getDeliveriesCount(delivery2.getDriver()));
+    	Files.delete(snapshot);
+    }
+    
+    @Test
+    public void testTenantsHaveSeparateEntitiesAndReports() {
+    	Date deliveryTime = new Date();
+    	City defaultJerusalem = cityRepository.findByName("Jerusalem");
+    	Customer mozart = customerRepository.findByName("Mozart");
+    	Delivery defaultDelivery = waltService.createOrderAndAssignDriver(mozart, restaurantRepository.findByName("meat"), deliveryTime);
+    	
+    	TenantContext.setTenantId("brandA");
+    	try {
+    		// Another brand with the same names, expecting the lookups by name to find the entities of this brand.
+    		City jerusalem = cityRepository.save(new City("Jerusalem"));
+    		Driver robert = driverRepository.save(new Driver("Robert", jerusalem));
+    		customerRepository.save(new Customer("Salieri", jerusalem, "Vienna street"));
+    		restaurantRepository.save(new Restaurant("meat", jerusalem, "Brand A meat"));
+    		assertEquals(jerusalem.getId(), cityRepository.findByName("Jerusalem").getId());
+    		assertEquals(robert.getId(), driverRepository.findByName("Robert").getId());
+    		assertTrue(!jerusalem.getId().equals(defaultJerusalem.getId()));
+    		assertEquals("brandA", jerusalem.getTenantId());
+    		
+    		// Expecting the order and the reports of this brand to see only its drivers.
+    		Delivery delivery = waltService.createOrderAndAssignDriver(customerRepository.findByName("Salieri"),
+    				restaurantRepository.findByName("meat"), deliveryTime);
+    		assertEquals(robert.getId(), delivery.getDriver().getId());
+    		List<DriverDistance> rankReport = waltService.getDriverRankReport();
+    		assertEquals(1, rankReport.size());
+    		assertEquals(robert.getId(), rankReport.get(0).getDriver().getId());
+    		assertEquals(1, waltService.getDriverRankReport(new Date(deliveryTime.getTime() - 3600000), new Date(deliveryTime.getTime() + 3600000)).size());
+    		
+    		// The customers of the default tenant don't exist for this brand.
+    		assertEquals(null, customerRepository.findByName("Mozart"));
+    		Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    			waltService.createOrderAndAssignDriver(mozart, restaurantRepository.findByName("meat"), deliveryTime);
+    		});
+    		assertEquals(Consts.CUSTOMER_NOT_FOUND_MESSAGE, throwable.getMessage());
+    	} finally {
+    		TenantContext.clear();
+    	}
+    	
+    	assertEquals(defaultJerusalem.getId(), cityRepository.findByName("Jerusalem").getId());
+    	assertEquals(null, customerRepository.findByName("Salieri"));
+    	List<DriverDistance> rankReport = waltService.getDriverRankReport();
+    	assertEquals(1, rankReport.size());
+    	assertEquals(defaultDelivery.getDriver().getId(), rankReport.get(0).getDriver().getId());
+    }
+    
+    @Test
+    public void testDeliveriesAndReportsOfAnotherTenantAreRejected() {
+    	Date deliveryTime = new Date();
+    	Delivery otherTenantDelivery;
+    	City otherTenantCity;
+    	Driver otherTenantDriver;
+    	TenantContext.setTenantId("brandB");
+    	try {
+    		// Another brand with a city of the same name, and a delivery of its own.
+    		otherTenantCity = cityRepository.save(new City("Jerusalem"));
+    		otherTenantDriver = driverRepository.save(new Driver("Robert", otherTenantCity));
+    		driverRepository.save(new Driver("David", otherTenantCity));
+    		customerRepository.save(new Customer("Salieri", otherTenantCity, "Vienna street"));
+    		restaurantRepository.save(new Restaurant("meat", otherTenantCity, "Brand B meat"));
+    		otherTenantDelivery = waltService.createOrderAndAssignDriver(customerRepository.findByName("Salieri"),
+    				restaurantRepository.findByName("meat"), deliveryTime);
+    	} finally {
+    		TenantContext.clear();
+    	}
+    	
+    	// Expecting the default tenant to be rejected when it cancels, moves or reads the deliveries of the other brand.
+    	Long deliveryId = otherTenantDelivery.getId();
+    	Date from = new Date(deliveryTime.getTime() - 3600000);
+    	Date to = new Date(deliveryTime.getTime() + 3600000);
+    	List<Runnable> calls = Lists.newArrayList(
+    			() -> waltService.cancelDelivery(deliveryId),
+    			() -> waltService.reassignDelivery(deliveryId),
+    			() -> waltService.getDeliveriesByCity(otherTenantCity, from, to),
+    			() -> waltService.getDriverSchedule(otherTenantDriver, from, to),
+    			() -> waltService.getDriverRankReportByCity(otherTenantCity),
+    			() -> waltService.getDriverRankReportByCity(otherTenantCity, from, to),
+    			() -> reactiveWaltService.getDriverRankReportByCity(otherTenantCity).collectList().block());
+    	for(Runnable call : calls) {
+    		Throwable throwable = Assertions.assertThrows(Exception.class, call::run);
+    		assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getMessage());
+    	}
+    	assertEquals(otherTenantDriver.getId(), deliveryRepository.findById(deliveryId).get().getDriver().getId());
+    	
+    	// The brand of the delivery can still cancel it.
+    	TenantContext.setTenantId("brandB");
+    	try {
+    		waltService.cancelDelivery(deliveryId);
+    	} finally {
+    		TenantContext.clear();
+    	}
+    	assertTrue(!deliveryRepository.findById(deliveryId).isPresent());
+    }
+    
+    @Test
+    public void testRankReportCountsDeliveriesWithoutCity() {
+    	// A delivery saved before deliveries had a city is counted by the city of its driver, like in the windowed reports.
+    	Driver driver = driverRepository.findByName("Robert");
+    	Delivery legacyDelivery = new Delivery(driver, restaurantRepository.findByName("meat"), customerRepository.findByName("Mozart"), new Date());
+    	legacyDelivery.setCity(null);
+    	deliveryRepository.save(legacyDelivery);
+    	
+    	List<DriverDistance> rankReport = waltService.getDriverRankReport();
+    	assertEquals(1, rankReport.size());
+    	assertEquals(driver.getId(), rankReport.get(0).getDriver().getId());
+    	assertEquals(1, reactiveWaltService.getDriverRankReport().collectList().block().size());
+    }
+    
+    @Test
+    public void testOrdersWithRestaurantOfAnotherTenantAreRejected() throws Exception {
+    	Date deliveryTime = new Date();
+    	City defaultJerusalem = cityRepository.findByName("Jerusalem");
+    	Restaurant otherTenantRestaurant;
+    	TenantContext.setTenantId("brandB");
+    	try {
+    		// Another brand with a city of the same name.
+    		City jerusalem = cityRepository.save(new City("Jerusalem"));
+    		driverRepository.save(new Driver("Robert", jerusalem));
+    		otherTenantRestaurant = restaurantRepository.save(new Restaurant("meat", jerusalem, "Brand B meat"));
+    	} finally {
+    		TenantContext.clear();
+    	}
+    	assertEquals(defaultJerusalem.getName(), otherTenantRestaurant.getCity().getName());
+
+    	// Expecting every path of the default tenant to reject the restaurant of the other brand, with proper message.
+    	Customer mozart = customerRepository.findByName("Mozart");
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(mozart, otherTenantRestaurant, deliveryTime);
+    	});
+    	assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getMessage());
+    	throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createRunAndAssignDriver(otherTenantRestaurant, Lists.newArrayList(mozart), deliveryTime);
+    	});
+    	assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getMessage());
+    	throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrdersAndAssignDrivers(Lists.newArrayList(new OrderRequest(mozart, otherTenantRestaurant, deliveryTime)));
+    	});
+    	assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getMessage());
+    	throwable = Assertions.assertThrows(Exception.class, () -> {
+    		reactiveWaltService.createOrderAndAssignDriver(mozart, otherTenantRestaurant, deliveryTime).block();
+    	});
+    	assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getMessage());
+    	CompletableFuture<Delivery> batchedDelivery = orderBatcher.submitOrder(mozart, otherTenantRestaurant, deliveryTime);
+    	throwable = Assertions.assertThrows(ExecutionException.class, () -> {
+    		batchedDelivery.get(10, TimeUnit.SECONDS);
+    	});
+    	assertEquals(Consts.NOT_SAME_TENANT_MESSAGE, throwable.getCause().getMessage());
+    	assertEquals(0, deliveryRepository.count());
+    }
+
+    @Test
+    public void testSlotMatchingAssignsOrdersThatGreedyAssignmentRejects() {
+    	// In Haifa Jennifer works only half an hour and is busier than Noa, Ofri is off.
+    	City haifa = cityRepository.findByName("Haifa");
+    	Customer customer = customerRepository.findByName("Chopin");
+    	Restaurant restaurant = restaurantRepository.save(new Restaurant("falafel", haifa, "Falafel stand"));
+    	Date slotStart = new Date(new Date().getTime() + 24 * 3600000);
+    	Driver jennifer = driverRepository.findByName("Jennifer");
+    	Driver noa = driverRepository.findByName("Noa");
+    	Driver ofri = driverRepository.findByName("Ofri");
+    	driverShiftRepository.saveAll(Lists.newArrayList(
+    			new DriverShift(jennifer, slotStart, new Date(slotStart.getTime() + 30 * 60000)),
+    			new DriverShift(noa, slotStart, new Date(slotStart.getTime() + 60 * 60000)),
+    			new DriverShift(ofri, new Date(slotStart.getTime() - 5 * 3600000), new Date(slotStart.getTime() - 4 * 3600000))));
+    	deliveryRepository.save(new Delivery(jennifer, restaurant, customer, new Date(slotStart.getTime() - 24 * 3600000)));
+    	
+    	// A short order that both can take, and a long one that only Noa can take.
+    	OrderRequest shortOrder = new OrderRequest(customer, restaurant, slotStart, new Date(slotStart.getTime() + 20 * 60000));
+    	OrderRequest longOrder = new OrderRequest(customer, restaurant, new Date(slotStart.getTime() + 10 * 60000), new Date(slotStart.getTime() + 50 * 60000));
+    	
+    	// Expecting the greedy assignment to give the short order to the least busy Noa, and to reject the long order.
+    	Delivery greedyDelivery = waltService.createOrderAndAssignDriver(customer, restaurant, shortOrder.getDeliveryTime(), shortOrder.getDeliveryEndTime());
+    	assertEquals(noa.getId(), greedyDelivery.getDriver().getId());
+    	Throwable throwable = Assertions.assertThrows(Exception.class, () -> {
+    		waltService.createOrderAndAssignDriver(customer, restaurant, longOrder.getDeliveryTime(), longOrder.getDeliveryEndTime());
+    	});
+    	assertEquals(Consts.NO_DRIVERS_AVAILABLE_MESSAGE, throwable.getMessage());
+    	waltService.cancelDelivery(greedyDelivery.getId());
+    	
+    	// Expecting the matching of the slot to assign both orders.
+    	List<Delivery> deliveries = waltService.createOrdersAndAssignDrivers(Lists.newArrayList(shortOrder, longOrder));
+    	assertEquals(jennifer.getId(), deliveries.get(0).getDriver().getId());
+    	assertEquals(noa.getId(), deliveries.get(1).getDriver().getId());
+    	
+    	// A third order in the slot has no driver left.
+    	List<Delivery> moreDeliveries = waltService.createOrdersAndAssignDrivers(Lists.newArrayList(shortOrder));
+    	assertNull(moreDeliveries.get(0));
+    }
+    
+    @Test
+    public void testHungarianAlgorithmFindsMinCostAssignment() {
+    	// Expecting the only assignment of cost 5, taking the cheapest cell first would cost 0 + 2 + 4 = 6.
+    	double[][] costs = {{4, 1, 3}, {2, 0, 5}, {3, 2, 2}};
+    	assertArrayEquals(new int[] {1, 0, 2}, HungarianAlgorithm.assign(costs, Long.MAX_VALUE));
+    	
+    	// More columns than rows, expecting every row to get its cheapest free column.
+    	double[][] rectangularCosts = {{5, 1, 9}, {1, 6, 2}};
+    	assertArrayEquals(new int[] {1, 0}, HungarianAlgorithm.assign(rectangularCosts, Long.MAX_VALUE));
+    	
+    	// Expecting no row to be assigned without any time budget.
+    	assertArrayEquals(new int[] {-1, -1, -1}, HungarianAlgorithm.assign(costs, 0));
+    	
+    	Assertions.assertThrows(IllegalArgumentException.class, () -> {
+    		HungarianAlgorithm.assign(new double[][] {{1}, {2}}, Long.MAX_VALUE);
+    	});
+    }
+    
+    @Test
+    public void testSlotOrdersAreAssignedOneByOneWhenMatchingRunsOutOfTime() {
+    	// Without any time budget the matching assigns nothing, and every order goes to the one by one assignment.
+    	WaltServiceImpl waltServiceImpl = AopTestUtils.getTargetObject(waltService);
+    	ReflectionTestUtils.setField(waltServiceImpl, "matchingTimeBudgetInMilliseconds", 0L);
+    	Customer customer = customerRepository.findByName("Mozart");
+    	Restaurant restaurant = restaurantRepository.findByName("meat");
+    	Date deliveryTime = new Date();
+    	OrderRequest order = new OrderRequest(customer, restaurant, deliveryTime);
+    	
+    	// Expecting each of the 3 drivers of Jerusalem to get one order, and a fourth order to get none.
+    	List<Delivery> deliveries = waltService.createOrdersAndAssignDrivers(Lists.newArrayList(order, order, order, order));
+    	HashSet<Long> drivers = new HashSet<>();
+    	for(int i = 0; i < 3; i++) {
+    		drivers.add(deliveries.get(i).getDriver().getId());
+    	}
+    	assertEquals(3, drivers.size());
+    	assertNull(deliveries.get(3));
+    }
+    
+    @Test
+    public void testBatchedOrdersWithSlotMatchingAreAssignedTogether() throws Exception {
+    	ReflectionTestUtils.setField(orderBatcher, "slotMatching", true);
+    	Customer beethoven = customerRepository.findByName("Beethoven");
+    	Customer bach = customerRepository.findByName("Bach");
+    	Customer missingCustomer = new Customer("Alon", beethoven.getCity(), "address");
+    	Date deliveryTime = new Date();
+    	
+    	// Orders of two restaurants of Tel-Aviv in the same hour are one slot.
+    	CompletableFuture<Delivery> order1 = orderBatcher.submitOrder(beethoven, restaurantRepository.findByName("vegan"), deliveryTime);
+    	CompletableFuture<Delivery> order2 = orderBatcher.submitOrder(bach, restaurantRepository.findByName("cafe"), deliveryTime);
+    	CompletableFuture<Delivery> missingCustomerOrder = orderBatcher.submitOrder(missingCustomer, restaurantRepository.findByName("vegan"), deliveryTime);
+    	
+    	// Expecting the valid orders to get different drivers, and only the order of the missing customer to fail.
+    	Delivery delivery1 = order1.get(10, TimeUnit.SECONDS);
+    	Delivery delivery2 = order2.get(10, TimeUnit.SECONDS);
+    	assertTrue(!delivery1.getDriver().getId().equals(delivery2.getDriver().getId()));
+    	assertNull(delivery1.getRunId());
+    	Throwable throwable = Assertions.assertThrows(ExecutionException.class, () -> {
+    		missingCustomerOrder.get(10, TimeUnit.SECONDS);
+    	});
+    	assertEquals(Consts.CUSTOMER_NOT_FOUND_MESSAGE, throwable.getCause().getMessage());
+    }
+    
     private void setDeliveriesForRankReportTest() {
     	Driver driver1 = driverRepository.findByName("Mary"); //tlv
     	Driver driver2 = driverRepository.findByName("Patricia"); //tlv
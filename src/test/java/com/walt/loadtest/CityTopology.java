@@ -0,0 +1,90 @@
+package com.walt.loadtest;
+
+import com.walt.dao.CityRepository;
+import com.walt.dao.CustomerRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.dao.RestaurantRepository;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Driver;
+import com.walt.model.Restaurant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Synthetic cities with drivers, customers and restaurants.
+// Bigger cities get more of everything, and restaurants are picked with a Zipf distribution - a few of them get most of the orders.
+public class CityTopology {
+
+    private final List<Restaurant> restaurants = new ArrayList<>();
+    private final Map<Long, List<Customer>> customersByCity = new HashMap<>();
+    private final double[] cumulativePopularity;
+
+    private CityTopology(List<Restaurant> restaurants, Map<Long, List<Customer>> customersByCity, double zipfExponent) {
+        this.restaurants.addAll(restaurants);
+        this.customersByCity.putAll(customersByCity);
+        this.cumulativePopularity = new double[restaurants.size()];
+        double total = 0;
+        for (int rank = 0; rank < restaurants.size(); rank++) {
+            total += 1.0 / Math.pow(rank + 1, zipfExponent);
+            cumulativePopularity[rank] = total;
+        }
+    }
+
+    // Function that creates the topology and saves it to the database.
+    // The size of city i is 1 / (i + 1) of the first city, like the populations of real cities.
+    public static CityTopology generate(Random random, int cities, int driversInLargestCity, int customersInLargestCity,
+                                        int restaurantsInLargestCity, double zipfExponent, CityRepository cityRepository,
+                                        DriverRepository driverRepository, CustomerRepository customerRepository,
+                                        RestaurantRepository restaurantRepository) {
+        List<Restaurant> restaurants = new ArrayList<>();
+        Map<Long, List<Customer>> customersByCity = new HashMap<>();
+        for (int i = 0; i < cities; i++) {
+            City city = cityRepository.save(new City("City" + i));
+            double size = 1.0 / (i + 1);
+
+            List<Driver> drivers = new ArrayList<>();
+            for (int j = 0; j < Math.max(1, (int) (driversInLargestCity * size)); j++) {
+                drivers.add(new Driver("Driver" + i + "-" + j, city));
+            }
+            driverRepository.saveAll(drivers);
+
+            List<Customer> customers = new ArrayList<>();
+            for (int j = 0; j < Math.max(1, (int) (customersInLargestCity * size)); j++) {
+                customers.add(new Customer("Customer" + i + "-" + j, city, "Street " + j));
+            }
+            customerRepository.saveAll(customers);
+            customersByCity.put(city.getId(), customers);
+
+            for (int j = 0; j < Math.max(1, (int) (restaurantsInLargestCity * size)); j++) {
+                restaurants.add(new Restaurant("Restaurant" + i + "-" + j, city, "Street " + j));
+            }
+        }
+        restaurantRepository.saveAll(restaurants);
+
+        // The popularity rank doesn't depend on the city.
+        Collections.shuffle(restaurants, random);
+        return new CityTopology(restaurants, customersByCity, zipfExponent);
+    }
+
+    public Restaurant pickRestaurant(Random random) {
+        double value = random.nextDouble() * cumulativePopularity[cumulativePopularity.length - 1];
+        int index = Arrays.binarySearch(cumulativePopularity, value);
+        return restaurants.get(index >= 0 ? index : -index - 1);
+    }
+
+    // Customers order only from restaurants in their own city.
+    public Customer pickCustomer(Random random, Restaurant restaurant) {
+        List<Customer> customers = customersByCity.get(restaurant.getCity().getId());
+        return customers.get(random.nextInt(customers.size()));
+    }
+
+    public List<Restaurant> getRestaurants() {
+        return restaurants;
+    }
+}
@@ -0,0 +1,219 @@
+package com.walt.loadtest;
+
+import com.walt.WaltService;
+import com.walt.dao.*;
+import com.walt.diagnostics.QueryDiagnostics;
+import com.walt.diagnostics.RepositoryMethodStats;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Restaurant;
+import com.walt.utils.Consts;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.annotation.Resource;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+// End to end load test of a whole day of orders, compressed into a few seconds.
+// Orders arrive as a Poisson process whose rate follows the hour of the simulated day, with a lunch peak and a bigger dinner rush.
+// The order latency is measured from the planned arrival time, so a slow service can't hide its delay by slowing the generator.
+// Not part of the regular build, run it with: mvn test -Pbenchmark -Dtest=DinnerRushBenchmark
+// The report ends with the repository query diagnostics of the run, also available at /actuator/repositoryqueries.
+@SpringBootTest(properties = "walt.diagnostics.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class DinnerRushBenchmark {
+
+    private static final long SEED = Long.getLong("walt.loadtest.seed", 42);
+    private static final int CITIES = Integer.getInteger("walt.loadtest.cities", 5);
+    private static final int DRIVERS = Integer.getInteger("walt.loadtest.drivers", 60);
+    private static final int CUSTOMERS = Integer.getInteger("walt.loadtest.customers", 2000);
+    private static final int RESTAURANTS = Integer.getInteger("walt.loadtest.restaurants", 100);
+    private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("walt.loadtest.zipf", "1.1"));
+    private static final int DAY_SECONDS = Integer.getInteger("walt.loadtest.day-seconds", 30);
+    private static final double PEAK_ORDERS_PER_SECOND = Double.parseDouble(System.getProperty("walt.loadtest.peak-rate", "100"));
+    private static final int THREADS = Integer.getInteger("walt.loadtest.threads", 32);
+    private static final int REPORT_POLL_MILLIS = Integer.getInteger("walt.loadtest.report-poll-millis", 200);
+
+    // Relative order rate for every hour of the day, the dinner rush is the highest.
+    private static final double[] HOURLY_WEIGHTS = {
+            0.02, 0.01, 0.01, 0.01, 0.01, 0.02, 0.05, 0.10, 0.15, 0.15, 0.20, 0.40,
+            0.60, 0.55, 0.30, 0.20, 0.25, 0.50, 0.90, 1.00, 0.85, 0.50, 0.20, 0.08};
+
+    @Autowired
+    WaltService waltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    DeliveryRepository deliveryRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    @Autowired
+    QueryDiagnostics queryDiagnostics;
+
+    @Test
+    public void simulateDinnerRush() throws Exception {
+        Random random = new Random(SEED);
+        CityTopology topology = CityTopology.generate(random, CITIES, DRIVERS, CUSTOMERS, RESTAURANTS, ZIPF_EXPONENT,
+                cityRepository, driverRepository, customerRepository, restaurantRepository);
+        Date simulatedDay = getStartOfTomorrow();
+        queryDiagnostics.reset(); // Only the queries of the simulated day are reported.
+
+        LatencyRecorder orderLatencies = new LatencyRecorder();
+        LatencyRecorder reportLatencies = new LatencyRecorder();
+        Map<String, AtomicInteger> rejections = new ConcurrentHashMap<>();
+        AtomicInteger assigned = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+
+        // Poll the rank reports in parallel to the orders, like the dispatch dashboard does.
+        long dayNanos = TimeUnit.SECONDS.toNanos(DAY_SECONDS);
+        long startNanos = System.nanoTime();
+        Thread reportPoller = new Thread(() -> pollRankReports(topology, startNanos + dayNanos, reportLatencies, new Random(SEED + 1)));
+        reportPoller.start();
+
+        // Generate the arrivals by thinning a Poisson process with the peak rate.
+        double peakRatePerNano = PEAK_ORDERS_PER_SECOND / TimeUnit.SECONDS.toNanos(1);
+        long arrival = 0;
+        int planned = 0;
+        while (true) {
+            arrival += (long) (-Math.log(1 - random.nextDouble()) / peakRatePerNano);
+            if (arrival >= dayNanos) {
+                break;
+            }
+            int hour = (int) (arrival * 24 / dayNanos);
+            if (random.nextDouble() >= HOURLY_WEIGHTS[hour]) {
+                continue;
+            }
+            planned++;
+
+            // Orders are made for the next full hour.
+            Restaurant restaurant = topology.pickRestaurant(random);
+            Customer customer = topology.pickCustomer(random, restaurant);
+            Date deliveryTime = new Date(simulatedDay.getTime() + TimeUnit.HOURS.toMillis(hour + 1));
+            long plannedStart = startNanos + arrival;
+
+            LockSupport.parkNanos(plannedStart - System.nanoTime());
+            workers.execute(() -> {
+                try {
+                    waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+                    assigned.incrementAndGet();
+                } catch (RuntimeException e) {
+                    rejections.computeIfAbsent(getRejectionReason(e), reason -> new AtomicInteger()).incrementAndGet();
+                }
+                orderLatencies.record(System.nanoTime() - plannedStart);
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        reportPoller.join();
+
+        printReport(planned, assigned.get(), elapsedNanos, orderLatencies, reportLatencies, rejections, countDoubleBookings());
+    }
+
+    private void pollRankReports(CityTopology topology, long endNanos, LatencyRecorder reportLatencies, Random random) {
+        List<Restaurant> restaurants = topology.getRestaurants();
+        while (System.nanoTime() < endNanos) {
+            long start = System.nanoTime();
+            waltService.getDriverRankReport();
+            waltService.getDriverRankReportByCity(restaurants.get(random.nextInt(restaurants.size())).getCity());
+            reportLatencies.record(System.nanoTime() - start);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPORT_POLL_MILLIS));
+        }
+    }
+
+    private String getRejectionReason(RuntimeException e) {
+        String message = e.getMessage();
+        if (Consts.CUSTOMER_NOT_FOUND_MESSAGE.equals(message) || Consts.NOT_SAME_CITY_MESSAGE.equals(message)
+                || Consts.NO_DRIVERS_MESSAGE.equals(message) || Consts.NO_DRIVERS_AVAILABLE_MESSAGE.equals(message)
+                || Consts.INVALID_DELIVERY_INTERVAL_MESSAGE.equals(message)) {
+            return message;
+        }
+        return "Unexpected " + e.getClass().getSimpleName() + ": " + message;
+    }
+
+    // Function that returns the number of deliveries that overlap an earlier delivery of the same driver.
+    // The stops of a multi stop run share the driver and the interval, so a run is counted as one booking.
+    private int countDoubleBookings() {
+        List<Delivery> deliveries = new ArrayList<>();
+        deliveryRepository.findAll().forEach(deliveries::add);
+        Map<Long, List<Delivery>> deliveriesByDriver = deliveries.stream()
+                .collect(Collectors.groupingBy(delivery -> delivery.getDriver().getId()));
+
+        int violations = 0;
+        for (List<Delivery> driverDeliveries : deliveriesByDriver.values()) {
+            driverDeliveries.sort((delivery1, delivery2) -> delivery1.getDeliveryTime().compareTo(delivery2.getDeliveryTime()));
+            long lastEnd = Long.MIN_VALUE;
+            Set<String> runIds = new HashSet<>();
+            for (Delivery delivery : driverDeliveries) {
+                if (delivery.getRunId() != null && !runIds.add(delivery.getRunId())) {
+                    continue;
+                }
+                if (delivery.getDeliveryTime().getTime() < lastEnd) {
+                    violations++;
+                }
+                lastEnd = Math.max(lastEnd, delivery.getDeliveryEndTime().getTime());
+            }
+        }
+        return violations;
+    }
+
+    private Date getStartOfTomorrow() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+
+    private void printReport(int planned, int assigned, long elapsedNanos, LatencyRecorder orderLatencies,
+                             LatencyRecorder reportLatencies, Map<String, AtomicInteger> rejections, int doubleBookings) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        System.out.println("==== Dinner rush load test ====");
+        System.out.println(String.format("Orders: %d in %.1f s, %.1f orders/s, %d assigned", planned, elapsedSeconds,
+                planned / elapsedSeconds, assigned));
+        System.out.println("Order latency: " + orderLatencies.summary());
+        System.out.println("Rank report latency: " + reportLatencies.summary());
+        for (Map.Entry<String, AtomicInteger> rejection : new TreeMap<>(rejections).entrySet()) {
+            System.out.println(String.format("Rejected: %d (%.2f%%) - %s", rejection.getValue().get(),
+                    rejection.getValue().get() * 100.0 / planned, rejection.getKey()));
+        }
+        System.out.println("Double booking violations: " + doubleBookings);
+        System.out.println("Repository methods by total time:");
+        for (RepositoryMethodStats methodStats : queryDiagnostics.getReport()) {
+            System.out.println(String.format("  %-50s %8d calls %10.1f ms total %8.3f ms avg %10d rows %8d N+1 operations",
+                    methodStats.getMethod(), methodStats.getCalls(), methodStats.getTotalMillis(), methodStats.getAverageMillis(),
+                    methodStats.getRows(), methodStats.getNPlusOneOperations()));
+        }
+    }
+}
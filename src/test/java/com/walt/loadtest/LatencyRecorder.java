@@ -0,0 +1,37 @@
+package com.walt.loadtest;
+
+import java.util.Arrays;
+
+// Thread safe recorder of latencies, in nanoseconds.
+public class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+
+    public synchronized void record(long latencyNanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    // Function that returns the latency in milliseconds below which the given fraction of the samples are.
+    public synchronized double getPercentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))] / 1000000.0;
+    }
+
+    public String summary() {
+        return String.format("count=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms", getCount(),
+                getPercentileMillis(0.50), getPercentileMillis(0.99), getPercentileMillis(0.999), getPercentileMillis(1.0));
+    }
+}